@@ -1,14 +1,17 @@
 package com.hmdp.config;
 
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
@@ -16,6 +19,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 可以访问 /admin/** 运维接口的用户id，逗号分隔，不配置时谁都不能访问
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -25,10 +34,19 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog/hot/scroll",
                         "/shop/**",
                         "/shop-type/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/admin/ready"
                 ).order(1);
+        // /shop/** 整体免登录，但改销量、评论数是写操作，单独要求登录
+        registry.addInterceptor(new LoginInterceptor())
+                .addPathPatterns("/shop/sold/**", "/shop/comments/**").order(1);
+        // 运维接口：登录之后还要在管理员名单里，就绪探针给负载均衡用，不拦截
+        registry.addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/admin/**")
+                .excludePathPatterns("/admin/ready").order(2);
 
         //token刷新的拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
@@ -0,0 +1,334 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.HotSearchPages;
+import com.hmdp.utils.HotShopDetector;
+import com.hmdp.utils.SearchKeywordTracker;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopCacheWarmer;
+import com.hmdp.utils.ShopFilterIndex;
+import com.hmdp.utils.ShopGridIndex;
+import com.hmdp.utils.ShopLocalCache;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopOpenHoursIndex;
+import com.hmdp.utils.ShopRankBoard;
+import com.hmdp.utils.ShopSuggestIndex;
+import com.hmdp.utils.SoldOutRegistry;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 运维相关接口：缓存统计等，除了就绪探针都只有 hmdp.admin.user-ids 里的用户能访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private ShopLocalCache shopLocalCache;
+
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    @Resource
+    private HotShopDetector hotShopDetector;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private ShopGridIndex shopGridIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ShopRankBoard shopRankBoard;
+
+    @Resource
+    private ShopFilterIndex shopFilterIndex;
+
+    @Resource
+    private ShopOpenHoursIndex shopOpenHoursIndex;
+
+    @Resource
+    private ShopSuggestIndex shopSuggestIndex;
+
+    @Resource
+    private SearchKeywordTracker searchKeywordTracker;
+
+    @Resource
+    private HotSearchPages hotSearchPages;
+
+    /**
+     * 就绪探针：店铺缓存第一次预热完成之前返回503
+     * @return 预热状态
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Result> ready() {
+        HttpStatus status = shopCacheWarmer.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(Result.ok(shopCacheWarmer.stats()));
+    }
+
+    /**
+     * 缓存失效发件箱的积压和处理情况
+     * @return 统计数据
+     */
+    @GetMapping("/cache/outbox")
+    public Result cacheOutboxStats() {
+        return Result.ok(cacheOutboxService.stats());
+    }
+
+    /**
+     * 店铺缓存一二级命中率
+     * @return 统计数据
+     */
+    @GetMapping("/cache/shop")
+    public Result shopCacheStats() {
+        return Result.ok(shopLocalCache.stats());
+    }
+
+    /**
+     * 缓存重建调度器的耗时、队列深度、丢弃数
+     * @return 统计数据
+     */
+    @GetMapping("/cache/rebuild")
+    public Result cacheRebuildStats() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+
+    /**
+     * 当前节点的热点店铺
+     * @return 热点店铺id、估计访问量、提升和刷新时间
+     */
+    @GetMapping("/shop/hot")
+    public Result hotShops() {
+        return Result.ok(hotShopDetector.hotShops());
+    }
+
+    /**
+     * 店铺id布隆过滤器状态
+     * @return 统计数据
+     */
+    @GetMapping("/shop/bloom")
+    public Result shopBloomStats() {
+        return Result.ok(shopBloomFilter.stats());
+    }
+
+    /**
+     * 在线重建店铺id布隆过滤器
+     * @return 无
+     */
+    @PostMapping("/shop/bloom/rebuild")
+    public Result rebuildShopBloom() {
+        if (!shopBloomFilter.rebuildAsync()) {
+            return Result.fail("布隆过滤器正在重建中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 手动触发一次店铺缓存全量预热（异步）
+     * @return 无
+     */
+    @PostMapping("/cache/shop/warmup")
+    public Result warmUpShopCache() {
+        if (!shopCacheWarmer.warmUpAsync()) {
+            return Result.fail("店铺缓存正在预热中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 本地附近店铺索引的规模和内存占用
+     * @return 统计数据
+     */
+    @GetMapping("/shop/grid")
+    public Result shopGridStats() {
+        return Result.ok(shopGridIndex.stats());
+    }
+
+    /**
+     * 重新构建本地附近店铺索引（异步）
+     * @return 无
+     */
+    @PostMapping("/shop/grid/rebuild")
+    public Result rebuildShopGrid() {
+        if (!shopGridIndex.isEnabled()) {
+            return Result.fail("未开启本地附近店铺索引");
+        }
+        if (!shopGridIndex.rebuildAsync()) {
+            return Result.fail("本地附近店铺索引正在构建中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 店铺名称索引的规模和压缩效果
+     * @return 统计数据
+     */
+    @GetMapping("/shop/search")
+    public Result shopSearchStats() {
+        return Result.ok(shopNameIndex.stats());
+    }
+
+    /**
+     * 本节点的搜索词统计和热搜结果页预计算的命中情况
+     * @return 统计数据
+     */
+    @GetMapping("/shop/search/hot")
+    public Result searchHotStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracker", searchKeywordTracker.stats());
+        stats.put("pages", hotSearchPages.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 搜索联想索引的内存占用和查询耗时
+     * @return 统计数据
+     */
+    @GetMapping("/shop/suggest")
+    public Result shopSuggestStats() {
+        return Result.ok(shopSuggestIndex.stats());
+    }
+
+    /**
+     * 修改店铺类型后调用，所有节点会在一秒内重新加载
+     * @return 新的版本号
+     */
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopType() {
+        return Result.ok(shopTypeService.bumpVersion());
+    }
+
+    /**
+     * 店铺排行榜最近一次全量构建的情况
+     * @return 统计数据
+     */
+    @GetMapping("/shop/rank")
+    public Result shopRankStats() {
+        return Result.ok(shopRankBoard.stats());
+    }
+
+    /**
+     * 手动触发一次排行榜全量构建（异步）
+     * @return 无
+     */
+    @PostMapping("/shop/rank/rebuild")
+    public Result rebuildShopRank() {
+        if (!shopRankBoard.rebuildAsync()) {
+            return Result.fail("排行榜正在构建中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 店铺筛选索引的规模和位图占用
+     * @return 统计数据
+     */
+    @GetMapping("/shop/filter")
+    public Result shopFilterStats() {
+        return Result.ok(shopFilterIndex.stats());
+    }
+
+    /**
+     * 店铺营业时间位图的容量和内存占用
+     * @return 统计数据
+     */
+    @GetMapping("/shop/open-hours")
+    public Result shopOpenHoursStats() {
+        return Result.ok(shopOpenHoursIndex.stats());
+    }
+
+    /**
+     * 秒杀订单Stream的消费情况
+     * @return 统计数据
+     */
+    @GetMapping("/seckill/stream")
+    public Result seckillStreamStats() {
+        return Result.ok(voucherOrderService.streamStats());
+    }
+
+    /**
+     * 本节点的秒杀券售罄标记和拦截次数
+     * @return 统计数据
+     */
+    @GetMapping("/seckill/sold-out")
+    public Result seckillSoldOutStats() {
+        return Result.ok(soldOutRegistry.stats());
+    }
+
+    /**
+     * 秒杀券补库存，/admin 只有管理员能访问，不放在免登录的 /voucher 下
+     * @param voucherId 优惠券id
+     * @param amount 补充的数量，必须大于0
+     * @return 无
+     */
+    @PostMapping("/seckill/{id}/restock")
+    public Result restockSeckillVoucher(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        return voucherService.restockSeckillVoucher(voucherId, amount);
+    }
+
+    /**
+     * 本节点的分片库存统计：跨分片扣库存、重新分配的次数等
+     * @return 统计数据
+     */
+    @GetMapping("/seckill/shards")
+    public Result seckillShardStats() {
+        return Result.ok(seckillStockShards.stats());
+    }
+
+    /**
+     * 一张秒杀券各分片的库存
+     * @param voucherId 券id
+     * @return 各分片库存和总数
+     */
+    @GetMapping("/seckill/shards/{id}")
+    public Result seckillShardStats(@PathVariable("id") Long voucherId) {
+        return Result.ok(seckillStockShards.stats(voucherId));
+    }
+}
@@ -80,4 +80,25 @@ public class BlogController {
         });
         return Result.ok(records);
     }
+
+    /**
+     * 滚动分页查询自己的博文
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 博文列表和下一页的游标
+     */
+    @GetMapping("/of/me/scroll")
+    public Result scrollMyBlog(@RequestParam(value = "cursor", required = false) String cursor) {
+        UserDTO user = UserHolder.getUser();
+        return blogService.scrollOfUser(user.getId(), cursor);
+    }
+
+    /**
+     * 滚动分页查询热门博文
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 博文列表和下一页的游标
+     */
+    @GetMapping("/hot/scroll")
+    public Result scrollHotBlog(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.scrollHot(cursor);
+    }
 }
@@ -2,14 +2,17 @@ package com.hmdp.controller;
 
 
 import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 
 /**
  * <p>
@@ -36,6 +39,54 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 根据id批量查询商铺信息
+     * @param ids 商铺id列表
+     * @return 商铺详情数据，按请求的顺序，不存在的店铺会被跳过
+     */
+    @GetMapping("/batch")
+    public Result queryShopByIds(@RequestParam("ids") List<Long> ids) {
+        if (ids.size() > SystemConstants.MAX_BATCH_SIZE) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_BATCH_SIZE + "个店铺");
+        }
+        return shopService.queryByIds(ids);
+    }
+
+    /**
+     * 只查询商铺的部分字段
+     * @param id 商铺id
+     * @param fields 需要的字段，例如 name,sold,score
+     * @return 字段名到值的映射
+     */
+    @GetMapping("/{id}/fields")
+    public Result queryShopFields(@PathVariable("id") Long id, @RequestParam("fields") List<String> fields) {
+        return shopService.queryFields(id, fields);
+    }
+
+    /**
+     * 增加商铺销量
+     * @param id 商铺id
+     * @param delta 增量
+     * @return 无
+     */
+    @PutMapping("/sold/{id}")
+    public Result incrementSold(@PathVariable("id") Long id,
+                                @RequestParam(value = "delta", defaultValue = "1") Integer delta) {
+        return shopService.incrementSold(id, delta);
+    }
+
+    /**
+     * 增加商铺评论数
+     * @param id 商铺id
+     * @param delta 增量
+     * @return 无
+     */
+    @PutMapping("/comments/{id}")
+    public Result incrementComments(@PathVariable("id") Long id,
+                                    @RequestParam(value = "delta", defaultValue = "1") Integer delta) {
+        return shopService.incrementComments(id, delta);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -43,10 +94,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,23 +113,80 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，和纬度一起传时按距离排序
+     * @param y 纬度
+     * @param sortBy 排序指标：score、sold、comments，不传按默认顺序
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "sortBy", required = false) String sortBy
+    ) {
+        return shopService.queryByType(typeId, current, x, y, sortBy);
+    }
+
+    /**
+     * 按类型、商圈、价格区间、最低评分、是否营业组合筛选商铺
+     * @param filter 筛选条件，除了类型都可以不传
+     * @return 这一页的商铺和满足条件的总数
+     */
+    @GetMapping("/filter")
+    public Result filterShops(ShopFilterDTO filter) {
+        return shopService.filter(filter);
+    }
+
+    /**
+     * 根据商铺类型滚动分页查询，翻得再深也不会变慢
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.scrollByType(typeId, cursor);
     }
 
     /**
-     * 根据商铺名称关键字分页查询商铺信息
+     * 附近的商铺，按距离由近到远，使用本地索引
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 搜索半径（米），不传时返回最近的几家
+     * @param lastDistance 上一页最后一家店的距离，第一页不传
+     * @param lastId 上一页最后一家店的id，第一页不传
+     * @return 商铺列表，带距离
+     */
+    @GetMapping("/nearby")
+    public Result queryShopNearby(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "radius", required = false) Double radius,
+            @RequestParam(value = "lastDistance", required = false) Double lastDistance,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "openNow", required = false) Boolean openNow,
+            @RequestParam(value = "openAt", required = false) String openAt
+    ) {
+        // openAt格式 HH:mm，优先于openNow
+        LocalTime time;
+        try {
+            time = StrUtil.isNotBlank(openAt) ? LocalTime.parse(openAt.trim())
+                    : Boolean.TRUE.equals(openNow) ? LocalTime.now() : null;
+        } catch (DateTimeParseException e) {
+            return Result.fail("营业时间格式错误：" + openAt);
+        }
+        return shopService.queryNearby(typeId, x, y, radius, lastDistance, lastId, time);
+    }
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息，按评分、销量排序
      * @param name 商铺名称关键字
      * @param current 页码
      * @return 商铺列表
@@ -90,11 +196,30 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryByName(name, current);
+    }
+
+    /**
+     * 热搜词，分数是按时间衰减后的搜索次数
+     * @param size 返回多少个
+     * @return 按热度排序的搜索词
+     */
+    @GetMapping("/search/hot")
+    public Result hotKeywords(@RequestParam(value = "size", required = false) Integer size) {
+        return shopService.hotKeywords(size);
+    }
+
+    /**
+     * 搜索框联想，按前缀匹配店铺名称和商圈
+     * @param prefix 已经输入的内容
+     * @param size 最多返回多少个
+     * @return 按销量、评分排序的联想词
+     */
+    @GetMapping("/suggest")
+    public Result suggest(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "size", required = false) Integer size
+    ) {
+        return shopService.suggest(prefix, size);
     }
 }
@@ -1,26 +1,16 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
 
 /**
  * <p>
@@ -35,35 +25,24 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
 public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
-
 
+    /**
+     * 查询店铺类型列表，支持条件请求
+     * @param request 用来比较客户端带来的If-None-Match
+     * @return 店铺类型列表，没有变化时返回304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        // 1、从Redis中查询店铺类型
-        String key = CACHE_SHOP_TYPE_KEY + UUID.randomUUID().toString(true);
-        String shopTypeJSON = stringRedisTemplate.opsForValue().get(key);
-
-        List<ShopType> typeList = new ArrayList<>();
-        // 2、判断缓存是否命中
-        if (StrUtil.isNotBlank(shopTypeJSON)) {
-            // 2.1 缓存命中，直接返回缓存数据
-            typeList = JSONUtil.toList(shopTypeJSON, ShopType.class);
-            return Result.ok(typeList);
-        }
-        // 2.1 缓存未命中，查询数据库
-            typeList = typeService
-                .query().orderByAsc("sort").list();
-
-        // 3、判断数据库中是否存在该数据
-        if (Objects.isNull(typeList)) {
-            // 3.1 数据库中不存在该数据，返回失败信息
-            return Result.fail("店铺类型不存在");
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        // 1、从本地快照取，不查Redis也不查数据库
+        ShopTypeSnapshot snapshot = typeService.snapshot();
+        // 2、客户端的缓存还是最新的，不返回内容
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
         }
-        // 3.2 店铺数据存在，写入Redis，并返回查询的数据（设置了数据有效期)
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList),
-                CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
-        return Result.ok(typeList);
+        // 3、直接返回序列化好的响应体
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
     }
 }
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyword {
+    private String keyword;
+    /**
+     * 按时间衰减后的搜索热度
+     */
+    private Double score;
+}
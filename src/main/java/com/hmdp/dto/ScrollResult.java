@@ -9,4 +9,8 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 下一页的游标，为null说明没有更多数据了
+     */
+    private String cursor;
 }
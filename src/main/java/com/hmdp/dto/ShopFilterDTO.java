@@ -0,0 +1,47 @@
+package com.hmdp.dto;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Data;
+
+import java.time.LocalTime;
+
+/**
+ * 店铺多条件筛选的参数，除了类型都可以不传
+ */
+@Data
+public class ShopFilterDTO {
+    private Long typeId;
+    /**
+     * 商圈
+     */
+    private String area;
+    private Long minPrice;
+    private Long maxPrice;
+    /**
+     * 最低评分，例如 40 表示4.0分
+     */
+    private Integer minScore;
+    /**
+     * 只看现在营业的
+     */
+    private Boolean openNow;
+    /**
+     * 只看某个时刻营业的，格式 HH:mm，和openNow同时传时以它为准
+     */
+    private String openAt;
+    /**
+     * 排序：score、sold、comments，不传按id
+     */
+    private String sortBy;
+    private Integer current = 1;
+
+    /**
+     * 需要营业的时刻，不筛选营业时间时返回null
+     */
+    public LocalTime openTime() {
+        if (StrUtil.isNotBlank(openAt)) {
+            return LocalTime.parse(openAt.trim());
+        }
+        return Boolean.TRUE.equals(openNow) ? LocalTime.now() : null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 搜索框的联想词
+ */
+@Getter
+@AllArgsConstructor
+public class ShopSuggestion {
+    public static final String SHOP = "shop";
+    public static final String AREA = "area";
+
+    /**
+     * 联想词类型：shop-店铺名称，area-商圈
+     */
+    private final String type;
+    /**
+     * 展示的文字
+     */
+    private final String text;
+    /**
+     * 店铺id，商圈为null
+     */
+    private final Long shopId;
+    /**
+     * 热度：销量*100+评分，商圈是下面所有店铺的热度之和
+     */
+    private final long weight;
+}
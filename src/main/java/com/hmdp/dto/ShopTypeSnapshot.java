@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照：版本号、数据，以及提前序列化好的响应体和ETag
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * Redis里的版本号，变了才会重新加载
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * 序列化好的 Result JSON，直接写到响应里
+     */
+    private final byte[] body;
+    private final String etag;
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 按点赞数滚动分页查询热门博文
+     */
+    Result scrollHot(String cursor);
+
+    /**
+     * 滚动分页查询某个用户的博文，新的在前
+     */
+    Result scrollOfUser(Long userId, String cursor);
 }
@@ -0,0 +1,21 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.util.Map;
+
+/**
+ * <p>
+ *  缓存失效发件箱 服务类
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务里记录一次店铺缓存失效，事务提交后才会执行
+     */
+    void record(Long shopId);
+
+    Map<String, Object> stats();
+}
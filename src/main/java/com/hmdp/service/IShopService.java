@@ -1,9 +1,13 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.time.LocalTime;
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,6 +20,54 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result queryByIds(List<Long> ids);
+
+    /**
+     * 按类型分页查询店铺，传了排序指标时按指标由高到低，传了坐标时按距离由近到远
+     */
+    Result queryByType(Integer typeId, Integer current, Double x, Double y, String sortBy);
+
+    /**
+     * 按名称关键字搜索，按评分、销量排序
+     */
+    Result queryByName(String name, Integer current);
+
+    /**
+     * 最近一段时间搜索最多的关键字
+     */
+    Result hotKeywords(Integer size);
+
+    /**
+     * 搜索框联想，按前缀匹配店铺名称和商圈，按热度排序
+     */
+    Result suggest(String prefix, Integer size);
+
+    /**
+     * 多条件筛选店铺，返回这一页的数据和总数
+     */
+    Result filter(ShopFilterDTO filter);
+
+    /**
+     * 按类型滚动分页，用游标代替页码
+     */
+    Result scrollByType(Integer typeId, String cursor);
+
+    /**
+     * 基于本地网格索引的附近店铺查询，用上一页最后一家店的距离和id做游标
+     *
+     * @param openAt 只返回这个时刻营业的店铺，为null时不过滤
+     */
+    Result queryNearby(Integer typeId, Double x, Double y, Double radius,
+                       Double lastDistance, Long lastId, LocalTime openAt);
+
+    Result queryFields(Long id, List<String> fields);
+
+    Result incrementSold(Long id, int delta);
+
+    Result incrementComments(Long id, int delta);
+
+    Result saveShop(Shop shop);
+
 
     Result update(Shop shop);
 }
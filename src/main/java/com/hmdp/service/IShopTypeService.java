@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 当前的店铺类型快照
+     */
+    ShopTypeSnapshot snapshot();
+
+    /**
+     * 店铺类型有变化时调用，所有节点会在下次检查版本时重新加载
+     *
+     * @return 新的版本号
+     */
+    long bumpVersion();
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -16,4 +19,14 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
    // Result createVoucherOrder(Long voucherId);
    void createVoucherOrder(VoucherOrder voucherOrder);
+
+   /**
+    * 一个事务里批量创建订单
+    */
+   void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+   /**
+    * 订单Stream的消费情况：本节点处理的条数、待确认和死信的数量
+    */
+   Map<String, Object> streamStats();
 }
@@ -17,4 +17,9 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 秒杀券补库存（补货或者取消订单退回），同时清除各节点的售罄标记
+     */
+    Result restockSeckillVoucher(Long voucherId, Integer amount);
 }
@@ -1,11 +1,24 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +30,77 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result scrollHot(String cursor) {
+        //1、解析游标：上一页最后一篇的点赞数和id
+        long[] last;
+        try {
+            last = ScrollCursor.decode(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("游标格式错误");
+        }
+        //2、按(liked, id)倒序，从上一页最后一篇之后开始取
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        List<Blog> blogs = query()
+                .and(last != null, w -> w.lt("liked", last[0])
+                        .or(o -> o.eq("liked", last[0]).lt("id", last[1])))
+                .orderByDesc("liked", "id")
+                .last("limit " + (size + 1))
+                .list();
+        ScrollResult r = new ScrollResult();
+        if (blogs.size() > size) {
+            blogs = blogs.subList(0, size);
+            Blog tail = blogs.get(size - 1);
+            r.setCursor(ScrollCursor.encode(tail.getLiked() == null ? 0 : tail.getLiked(), tail.getId()));
+        }
+        //3、一次查询填充作者信息
+        fillUsers(blogs);
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result scrollOfUser(Long userId, String cursor) {
+        //1、解析游标：上一页最后一篇的id
+        long[] last;
+        try {
+            last = ScrollCursor.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("游标格式错误");
+        }
+        //2、在(user_id, id)索引上倒序取
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(last != null, "id", last == null ? null : last[0])
+                .orderByDesc("id")
+                .last("limit " + (size + 1))
+                .list();
+        ScrollResult r = new ScrollResult();
+        if (blogs.size() > size) {
+            blogs = blogs.subList(0, size);
+            r.setCursor(ScrollCursor.encode(blogs.get(size - 1).getId()));
+        }
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+    private void fillUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, User> users = userService.listByIds(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            User user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.ShopChangeNotifier;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopLocalCache;
+import com.hmdp.utils.ShopRankBoard;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * <p>
+ * 缓存失效发件箱：业务事务里只插入一条记录，提交后由后台线程批量删除缓存，
+ * 失败的记录按指数退避重试，删除成功后再延迟做一次双删，覆盖提交前后被并发读回填的旧数据
+ * 多个节点一起轮询，每批先用UPDATE认领（写上owner并把next_time推到租约结束），只处理自己认领到的，
+ * 节点挂了租约一过别的节点会接着处理。时间一律用数据库的NOW()，不受各节点时钟和时区的影响
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final ScheduledExecutorService DELAYED_DELETE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Value("${hmdp.cache.outbox.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 没有新记录通知时的轮询间隔，兜底处理其他节点或者重启前遗留的记录
+     */
+    @Value("${hmdp.cache.outbox.poll-ms:1000}")
+    private long pollMillis;
+
+    /**
+     * 延迟双删的延迟时间，要大于一次读数据库+写缓存的耗时，设为0关闭
+     */
+    @Value("${hmdp.cache.outbox.second-delete-delay-ms:500}")
+    private long secondDeleteDelayMillis;
+
+    /**
+     * 认领的租约时间，处理一批的时间要比它短，节点挂了以后过了租约其他节点才会接手
+     */
+    @Value("${hmdp.cache.outbox.lease-seconds:30}")
+    private long leaseSeconds;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopLocalCache shopLocalCache;
+
+    @Resource
+    private ShopChangeNotifier shopChangeNotifier;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopRankBoard shopRankBoard;
+
+    //事务提交后唤醒后台线程
+    private final Semaphore signal = new Semaphore(0);
+    private volatile boolean running = true;
+    private Thread worker;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder secondDeletes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchNanos = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        worker = new Thread(this::loop, "cache-outbox");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        worker.interrupt();
+        DELAYED_DELETE_EXECUTOR.shutdownNow();
+    }
+
+    @Override
+    public void record(Long shopId) {
+        // next_time不填，用数据库默认的CURRENT_TIMESTAMP，和轮询时的NOW()是同一个时钟
+        save(new CacheOutbox().setShopId(shopId).setRetries(0));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            signal.release();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                // 本节点的本地缓存马上失效，Redis交给后台线程
+                shopLocalCache.invalidate(shopId);
+                signal.release();
+            }
+        });
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                signal.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                // 一直处理到没有到期的记录为止
+                while (running && processBatch() == batchSize) {
+                    signal.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("处理缓存失效发件箱异常", e);
+            }
+        }
+    }
+
+    private int processBatch() {
+        // 1、认领一批到期的记录，同一条记录同一时间只会被一个节点认领到
+        String owner = IdUtil.fastSimpleUUID();
+        boolean claimed = update()
+                .set("owner", owner)
+                .setSql("next_time = DATE_ADD(NOW(), INTERVAL " + leaseSeconds + " SECOND)")
+                .apply("next_time <= NOW()")
+                .last("ORDER BY id LIMIT " + batchSize)
+                .update();
+        if (!claimed) {
+            return 0;
+        }
+        List<CacheOutbox> rows = query().eq("owner", owner).orderByAsc("id").list();
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        long begin = System.nanoTime();
+        List<Long> rowIds = rows.stream().map(CacheOutbox::getId).collect(Collectors.toList());
+        Set<Long> shopIds = rows.stream().map(CacheOutbox::getShopId).collect(Collectors.toCollection(LinkedHashSet::new));
+        try {
+            // 2、批量删除缓存并广播
+            invalidate(shopIds);
+            // 3、按数据库里的最新数据同步GEO索引和排行榜
+            List<Shop> shops = shopMapper.selectBatchIds(shopIds);
+            shopGeoIndex.sync(shopIds, shops);
+            shopRankBoard.sync(shopIds, shops);
+            // 4、删除发件箱记录。处理超过租约时别的节点可能又认领了同一条，删缓存是幂等的，只是多做一次
+            removeByIds(rowIds);
+            processed.add(rows.size());
+            // 5、延迟双删
+            if (secondDeleteDelayMillis > 0) {
+                DELAYED_DELETE_EXECUTOR.schedule(() -> secondDelete(shopIds), secondDeleteDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            failedBatches.increment();
+            log.error("缓存失效失败，稍后重试, shopIds={}", shopIds, e);
+            // 指数退避，最长60秒，同时放弃认领
+            update().set("owner", null)
+                    .setSql("retries = retries + 1, next_time = DATE_ADD(NOW(), INTERVAL LEAST(POW(2, retries), 60) SECOND)")
+                    .eq("owner", owner)
+                    .update();
+        } finally {
+            batches.increment();
+            batchNanos.add(System.nanoTime() - begin);
+        }
+        return rows.size();
+    }
+
+    private void secondDelete(Set<Long> shopIds) {
+        try {
+            invalidate(shopIds);
+            secondDeletes.add(shopIds.size());
+        } catch (Exception e) {
+            // 第二次删除失败不再重试，只是把不一致的窗口缩短，兜底还有缓存过期
+            log.error("延迟双删失败, shopIds={}", shopIds, e);
+        }
+    }
+
+    private void invalidate(Set<Long> shopIds) {
+        List<String> keys = new ArrayList<>(shopIds.size() * 2);
+        for (Long shopId : shopIds) {
+            keys.add(CACHE_SHOP_KEY + shopId);
+            keys.add(CACHE_SHOP_HASH_KEY + shopId);
+        }
+        stringRedisTemplate.delete(keys);
+        shopChangeNotifier.publish(shopIds);
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long n = batches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", count());
+        stats.put("processed", processed.sum());
+        stats.put("batches", n);
+        stats.put("failedBatches", failedBatches.sum());
+        stats.put("secondDeletes", secondDeletes.sum());
+        stats.put("avgBatchMillis", n == 0 ? 0 : batchNanos.sum() / n / 1_000_000.0);
+        return stats;
+    }
+}
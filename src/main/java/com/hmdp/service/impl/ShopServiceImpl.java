@@ -1,26 +1,63 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
+import com.hmdp.dto.ShopSuggestion;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.GeoGrid;
+import com.hmdp.utils.HotSearchPages;
+import com.hmdp.utils.HotShopDetector;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.SearchKeywordTracker;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopCacheCodec;
+import com.hmdp.utils.ShopChangeNotifier;
+import com.hmdp.utils.ShopFilterIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGridIndex;
+import com.hmdp.utils.ShopHashCache;
+import com.hmdp.utils.ShopLocalCache;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopOpenHoursIndex;
+import com.hmdp.utils.ShopRankBoard;
+import com.hmdp.utils.ShopSuggestIndex;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -38,113 +75,715 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ShopLocalCache shopLocalCache;
+
+    @Resource
+    private ShopChangeNotifier shopChangeNotifier;
+
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private ShopCacheCodec shopCacheCodec;
+
+    @Resource
+    private HotShopDetector hotShopDetector;
+
+    @Resource
+    private ShopHashCache shopHashCache;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGridIndex shopGridIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopOpenHoursIndex shopOpenHoursIndex;
+
+    @Resource
+    private ShopSuggestIndex shopSuggestIndex;
+
+    @Resource
+    private SearchKeywordTracker searchKeywordTracker;
+
+    @Resource
+    private HotSearchPages hotSearchPages;
+
+    @Resource
+    private ShopRankBoard shopRankBoard;
+
+    @Resource
+    private ShopFilterIndex shopFilterIndex;
+
+    /**
+     * 缓存策略：logical-逻辑过期（默认），aside-旁路缓存+空值，hash-按字段存的哈希缓存
+     */
+    @Value("${hmdp.cache.shop.strategy:logical}")
+    private String cacheStrategy;
+
+    /**
+     * 旁路缓存TTL的随机抖动比例，避免一起加载的店铺一起过期
+     */
+    @Value("${hmdp.cache.shop.aside.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    @Value("${hmdp.cache.shop.aside.xfetch.enabled:true}")
+    private boolean xfetchEnabled;
+
+    /**
+     * 越大越倾向于提前刷新
+     */
+    @Value("${hmdp.cache.shop.aside.xfetch.beta:1.0}")
+    private double xfetchBeta;
+
+    /**
+     * 销量、评论数一次最多加多少
+     */
+    @Value("${hmdp.shop.counter.max-delta:100}")
+    private int maxCounterDelta;
+
+    /**
+     * 附近店铺的最大搜索半径（米）
+     */
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double geoRadiusMeters;
+
     @Override
     public Result queryById(Long id){
+        //布隆过滤器判断一定不存在的id，直接拒绝，不查Redis也不查数据库
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在！");
+        }
+        if ("aside".equals(cacheStrategy)) {
+            return queryWithBlank(id);
+        }
+        if ("hash".equals(cacheStrategy)) {
+            return queryWithHash(id);
+        }
          return Result.ok(queryWithLogicalExpire(id));
-        // return queryWithBlank(id);
     }
 
 
     //用空缓存解决缓存穿透问题
     public Result queryWithBlank(Long id) {
+        //0、布隆过滤器拦截一定不存在的id，这样只有误判的id才会走到下面的空值缓存，不会被随机id刷爆Redis
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在！");
+        }
+
         //1、从redis查询商铺缓存
         String key = "cache:shop:"+id;
 
         //2.判断缓存是否命中
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] shopBytes = getCache(key);
 
         //3.命中，直接返回
-        if(StrUtil.isNotBlank(shopJson)){
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class); //这个就是反序列化
-            return Result.ok(shop);
+        if(shopBytes != null && shopBytes.length > 0){
+            return Result.ok(resolveAside(id, key, shopBytes));
         }
 
-        //缓存未命中，判断缓存中查询的数据是否是空字符串(isNotBlank把null和空字符串都给排除了 而空缓存是“ ”，null是没有缓存）
-        if(shopJson!= null){
+        //缓存未命中，判断缓存中查询的数据是否是空值(空缓存是长度为0的值，null是没有缓存）
+        if(shopBytes != null){
             //缓存为空缓存 说明店铺不存在 直接返回 避免查数据库造成的缓存穿透
             return Result.fail("店铺不存在");
         }
 
 
-        //4、如果缓存为null，根据id查询数据库(用MyBatisPlus）
-        Shop shop = getById(id);
+        //4、如果缓存为null，根据id查询数据库并写入redis（不存在时【缓存一个空值】）
+        shopLocalCache.recordHardMiss();
+        Shop shop = loadShop2Cache(id);
 
-        //5.数据库不存在，返回错误且【缓存一个空值】
+        //5.数据库不存在，返回错误
         if(shop == null)
         {
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.SECONDS);
             return Result.fail("店铺不存在！");
 
         }
-        //6.存在，写入redis，并设置缓存过期时间
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
-        //7.返回
+        //6.返回
         return Result.ok(shop);
 
     }
 
+    //旁路缓存命中：反序列化，快过期时按概率提前在后台刷新（XFetch）
+    //重建越慢、剩余时间越短，提前刷新的概率越大，这样只有少数请求会去刷新，不会等到过期后大量请求一起打到数据库
+    private Shop resolveAside(Long id, String key, byte[] shopBytes) {
+        RedisData redisData = shopCacheCodec.decode(shopBytes); //这个就是反序列化
+        if (xfetchEnabled && shouldRefreshEarly(redisData)
+                && rebuildScheduler.submit(key, () -> loadShop2Cache(id))) {
+            // 只统计真正排进队列的，被合并或丢弃的不算
+            shopLocalCache.recordEarlyRefresh();
+        }
+        return (Shop) redisData.getData();
+    }
+
+    //用哈希缓存店铺：计数器变化时原地自增，不用删掉整个缓存
+    public Result queryWithHash(Long id) {
+        //1.查询哈希缓存
+        Shop shop = shopHashCache.get(id);
+        if (shop != null) {
+            //id为空说明是缓存的空值
+            return shop.getId() == null ? Result.fail("店铺不存在！") : Result.ok(shop);
+        }
+        //2.未命中，查询数据库并写入缓存
+        shop = getById(id);
+        if (shop == null) {
+            shopHashCache.putNull(id);
+            return Result.fail("店铺不存在！");
+        }
+        shopHashCache.put(shop);
+        return Result.ok(shop);
+    }
+
+    @Override
+    public Result queryFields(Long id, List<String> fields) {
+        if (!ShopHashCache.FIELDS.containsAll(fields)) {
+            return Result.fail("不支持的字段");
+        }
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在！");
+        }
+        //1.只读取需要的字段
+        Map<String, String> values = shopHashCache.getFields(id, fields);
+        if (values == null) {
+            //2.缓存不存在，加载整个店铺后再读
+            Result result = queryWithHash(id);
+            if (!result.getSuccess()) {
+                return result;
+            }
+            values = shopHashCache.getFields(id, fields);
+        }
+        if (values == null || values.isEmpty()) {
+            return Result.fail("店铺不存在！");
+        }
+        return Result.ok(values);
+    }
+
+    @Override
+    public Result incrementSold(Long id, int delta) {
+        return incrementCounter(id, ShopHashCache.SOLD, delta);
+    }
+
+    @Override
+    public Result incrementComments(Long id, int delta) {
+        return incrementCounter(id, ShopHashCache.COMMENTS, delta);
+    }
+
+    //计数器：数据库原子自增，哈希缓存原地HINCRBY，不删除整个店铺缓存
+    private Result incrementCounter(Long id, String field, int delta) {
+        // 1、只能加不能减，sold、comments是无符号列，减成负数会报错或者被截成0，缓存和排行榜就和数据库对不上了
+        if (delta <= 0 || delta > maxCounterDelta) {
+            return Result.fail("增量必须在1到" + maxCounterDelta + "之间");
+        }
+        // 2、field只会是sold或者comments，不存在注入问题；数据库改成功了才动缓存和排行榜
+        boolean success = update().setSql(field + " = " + field + " + " + delta).eq("id", id).update();
+        if (!success) {
+            return Result.fail("店铺不存在！");
+        }
+        shopHashCache.increment(id, field, delta);
+        if (!"hash".equals(cacheStrategy)) {
+            // 3、字符串缓存存的是整个店铺，没法原地自增，换成数据库里的最新值，再广播让各节点的一级缓存、热点副本和本地索引跟上
+            refreshStringCache(id);
+            shopChangeNotifier.publish(id);
+        }
+        // 排行榜原地加分，不用等全量构建
+        Long typeId = typeOf(id);
+        if (typeId != null) {
+            shopRankBoard.increment(id, typeId, field, delta);
+        }
+        return Result.ok();
+    }
+
+    //逻辑过期：沿用原来的逻辑过期时间重新写一份（没有缓存说明不是预热过的热点，不用写）；旁路缓存：直接删掉，下次查询重新加载
+    private void refreshStringCache(Long id) {
+        String key = CACHE_SHOP_KEY + id;
+        if ("aside".equals(cacheStrategy)) {
+            stringRedisTemplate.delete(key);
+            return;
+        }
+        byte[] shopBytes = getCache(key);
+        if (shopBytes == null || shopBytes.length == 0) {
+            return;
+        }
+        RedisData redisData = shopCacheCodec.decode(shopBytes);
+        redisData.setData(getById(id));
+        setCache(key, shopCacheCodec.encode(redisData), -1);
+    }
+
+    //店铺类型几乎不变，优先从本地缓存取，取不到再查数据库
+    private Long typeOf(Long id) {
+        Shop shop = shopLocalCache.get(id);
+        if (shop != null) {
+            return shop.getTypeId();
+        }
+        shop = query().select("type_id").eq("id", id).one();
+        return shop == null ? null : shop.getTypeId();
+    }
+
+    //旁路缓存的加载：查数据库，写入带随机抖动TTL的缓存，同时记下重建耗时给XFetch用
+    private Shop loadShop2Cache(Long id) {
+        String key = CACHE_SHOP_KEY + id;
+        long begin = System.currentTimeMillis();
+        //1.查询数据库
+        Shop shop = getById(id);
+        //2.不存在，缓存空值
+        if (shop == null) {
+            setCache(key, new byte[0], CACHE_NULL_TTL);
+            return null;
+        }
+        //3.存在，写入redis，过期时间加上随机抖动
+        long ttl = jitter(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL));
+        setCache(key, encodeAside(shop, ttl, System.currentTimeMillis() - begin), ttl);
+        return shop;
+    }
+
+    //旁路缓存的值：开了XFetch时带上过期时间和重建耗时
+    private byte[] encodeAside(Shop shop, long ttl, long rebuildMillis) {
+        if (!xfetchEnabled) {
+            return shopCacheCodec.encodeShop(shop);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(ttl));
+        redisData.setRebuildMillis(rebuildMillis);
+        return shopCacheCodec.encode(redisData);
+    }
+
+    private long jitter(long ttlSeconds) {
+        double factor = 1 + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * ttlJitter;
+        return Math.max(1, Math.round(ttlSeconds * factor));
+    }
+
+    //XFetch：now - rebuildMillis * beta * ln(rand) >= 过期时间 时提前刷新
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        if (redisData.getExpireTime() == null || redisData.getRebuildMillis() == null) {
+            return false;
+        }
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double gap = -Math.max(1, redisData.getRebuildMillis()) * xfetchBeta
+                * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
+    }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
     //用逻辑过期解决缓存击穿问题
     public Shop queryWithLogicalExpire(Long id) {
+        //0、热点探测，热点店铺直接读本地副本
+        hotShopDetector.record(id);
+        Shop hotShop = hotShopDetector.get(id);
+        if (hotShop != null) {
+            return hotShop;
+        }
+
+        //0.1、再查本地一级缓存，命中就不用出JVM了
+        Shop localShop = shopLocalCache.get(id);
+        if (localShop != null) {
+            return localShop;
+        }
+
         //1、从redis查询商铺缓存
         String key = "cache:shop:"+id;
 
         //2.判断缓存是否命中
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] shopBytes = getCache(key);
 
         //3.未命中，直接返回空【这里思考一下为什么可以直接返回空而不需要从数据库读】----因为缓存击穿默认的都是热点Key 都是提前已经部署在redis里面的了 如果redis里面没有 那就说明不存在这个数据
-        if(StrUtil.isBlank(shopJson)){
+        if(shopBytes == null || shopBytes.length == 0){
+            shopLocalCache.recordL2Miss();
             return null;
         }
+        shopLocalCache.recordL2Hit();
 
-        //4.命中，需要把json反序列化【啊啊啊啊这就是反序列化】
-        RedisData redisData = JSONUtil.toBean(shopJson,RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        Shop shop = JSONUtil.toBean(data,Shop.class);
+        //4.命中，判断逻辑过期
+        return resolveLogicalExpire(id, key, shopBytes);
+    }
+
+    //反序列化逻辑过期的缓存，未过期放入本地缓存，过期则提交重建，都返回店铺信息
+    private Shop resolveLogicalExpire(Long id, String key, byte[] shopBytes) {
+        //1.反序列化【啊啊啊啊这就是反序列化】（二进制格式只解析一次，旧的JSON数据也能读）
+        RedisData redisData = shopCacheCodec.decode(shopBytes);
+        Shop shop = (Shop) redisData.getData();
 
         LocalDateTime expireTime = redisData.getExpireTime();
 
-        //5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())){
-            //5.1 未过期，直接返回店铺信息
+        //2.判断是否过期（没有过期时间的是旁路缓存写入的，直接返回）
+        if (expireTime == null || expireTime.isAfter(LocalDateTime.now())){
+            //2.1 未过期，放入本地缓存并返回店铺信息（已过期的不放，等重建完再进本地缓存）
+            //    本地缓存最多活到逻辑过期时间，过期后重新读Redis，才会发现需要重建
+            shopLocalCache.put(id, shop, expireTime);
             return shop;
 
         }
 
-        //5.2 已过期，需要缓存重建
+        //2.2 已过期，需要缓存重建
 
-        //6.缓存重建
-        //6.1 获取互斥锁
-        String lockKey =  LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-
-        //6.2 判断获取锁是否成功
-
-        if(isLock){
-            //先double check这个redis缓存是否过期 如果存在则无需重建缓存
-            if(expireTime.isAfter(LocalDateTime.now()))
-                return shop;
-            //6.3 成功，开启独立线程，实现缓存重建(用线程池去做）
-            CACHE_REBUILD_EXECUTOR.submit(() ->{
-               try {
-                  //重建缓存
-                   this.saveShop2Redis(id, 20L);
-               } catch (Exception e){
-                   throw new RuntimeException(e);
-               }
-               finally {
-                   unlock(lockKey);
-               }
-            });
-        }
-
-        //6.4 失败，直接返回过期的商铺信息
+        //3.缓存重建：交给重建调度器，本JVM里同一个key已经在重建时直接合并，不会再去Redis抢锁
+        rebuildScheduler.submit(key, () -> rebuildWithLock(id));
+
+        //4.直接返回过期的商铺信息
         return shop;
+    }
+
+    @Override
+    public Result queryByIds(List<Long> ids) {
+        return Result.ok(listByIdsCached(ids));
+    }
+
+    //批量从缓存查店铺，按传入的顺序返回，不存在的跳过；每种缓存策略的读法和回填格式都和queryById一样
+    private List<Shop> listByIdsCached(List<Long> ids) {
+        //1、去重，并用布隆过滤器去掉一定不存在的id
+        List<Long> candidates = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            if (id != null && shopBloomFilter.mightContain(id)) {
+                candidates.add(id);
+            }
+        }
+        Map<Long, Shop> found = new HashMap<>(candidates.size() * 2);
+        boolean hash = "hash".equals(cacheStrategy);
+        boolean logical = !hash && !"aside".equals(cacheStrategy);
+
+        //2、逻辑过期先查本地缓存，其他策略和单个查询一样不用本地缓存
+        List<Long> remoteIds = new ArrayList<>();
+        for (Long id : candidates) {
+            Shop shop = logical ? shopLocalCache.get(id) : null;
+            if (shop != null) {
+                found.put(id, shop);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+
+        //3、剩下的一次网络往返查Redis：哈希缓存用管道HGETALL，其他用MGET
+        List<Long> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            if (hash) {
+                readHashCache(remoteIds, found, missIds);
+            } else {
+                readStringCache(remoteIds, logical, found, missIds);
+            }
+        }
+
+        //4、未命中的用一条SQL查数据库，再用管道回填缓存（不存在的缓存空值）
+        if (!missIds.isEmpty()) {
+            long begin = System.currentTimeMillis();
+            Map<Long, Shop> loaded = new HashMap<>(missIds.size() * 2);
+            for (Shop shop : listByIds(missIds)) {
+                loaded.put(shop.getId(), shop);
+            }
+            found.putAll(loaded);
+            if (hash) {
+                shopHashCache.putAll(missIds, loaded);
+            } else {
+                backfill(missIds, loaded, System.currentTimeMillis() - begin);
+            }
+        }
 
+        //5、按请求的顺序返回
+        List<Shop> shops = new ArrayList<>(candidates.size());
+        for (Long id : candidates) {
+            Shop shop = found.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
+    }
 
+    private void readHashCache(List<Long> ids, Map<Long, Shop> found, List<Long> missIds) {
+        Map<Long, Shop> cached = shopHashCache.getAll(ids);
+        for (Long id : ids) {
+            Shop shop = cached.get(id);
+            if (shop == null) {
+                missIds.add(id);
+            } else if (shop.getId() != null) {
+                found.put(id, shop);
+            }
+            //id为空是缓存的空值，店铺不存在，跳过
+        }
+    }
+
+    private void readStringCache(List<Long> ids, boolean logical, Map<Long, Shop> found, List<Long> missIds) {
+        byte[][] keys = new byte[ids.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (CACHE_SHOP_KEY + ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(keys));
+        for (int i = 0; i < keys.length; i++) {
+            Long id = ids.get(i);
+            byte[] value = values == null ? null : values.get(i);
+            if (value == null) {
+                //1 没有缓存，后面统一查数据库
+                if (logical) {
+                    shopLocalCache.recordL2Miss();
+                }
+                missIds.add(id);
+            } else if (value.length > 0) {
+                //2 命中，和单个查询一样判断逻辑过期，或者按XFetch提前刷新
+                String key = CACHE_SHOP_KEY + id;
+                if (logical) {
+                    shopLocalCache.recordL2Hit();
+                    found.put(id, resolveLogicalExpire(id, key, value));
+                } else {
+                    found.put(id, resolveAside(id, key, value));
+                }
+            }
+            //3 空值说明店铺不存在，跳过
+        }
+    }
+    @Override
+    public Result queryByType(Integer typeId, Integer current, Double x, Double y, String sortBy) {
+        //0、页码从1开始，小于1的按第一页，否则下面算出来的偏移量是负数
+        if (current == null || current < 1) {
+            current = 1;
+        }
+        //1、按指标排序，从排行榜取出这一页的店铺id，再批量查详情
+        if (StrUtil.isNotBlank(sortBy)) {
+            if (!ShopRankBoard.METRICS.contains(sortBy)) {
+                return Result.fail("不支持的排序方式：" + sortBy);
+            }
+            int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+            List<Long> ids = shopRankBoard.page(typeId.longValue(), sortBy, from, SystemConstants.DEFAULT_PAGE_SIZE);
+            return Result.ok(ids.isEmpty() ? Collections.emptyList() : listByIdsCached(ids));
+        }
+        //2、没有传坐标，按数据库分页
+        if (x == null || y == null) {
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //3、按距离取出这一页的店铺id，开启了本地索引就不用访问Redis
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        Map<Long, Double> distances;
+        if (shopGridIndex.isEnabled()) {
+            List<GeoGrid.Hit> hits = shopGridIndex.nearest(typeId.longValue(), x, y,
+                    from + SystemConstants.DEFAULT_PAGE_SIZE, geoRadiusMeters, null, null);
+            distances = toDistances(hits.subList(Math.min(from, hits.size()), hits.size()));
+        } else {
+            distances = shopGeoIndex.search(typeId.longValue(), x, y, from, SystemConstants.DEFAULT_PAGE_SIZE);
+        }
+        //4、批量查店铺详情，填上距离
+        return Result.ok(withDistance(distances));
+    }
+
+    @Override
+    public Result queryByName(String name, Integer current) {
+        //0、页码从1开始，和filter一样小于1的按第一页
+        if (current == null || current < 1) {
+            current = 1;
+        }
+        //1、没有关键字或者索引还没建好，走数据库
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2、翻页不算新的搜索，只统计第一页
+        if (current == 1) {
+            searchKeywordTracker.record(name);
+        }
+        //3、热词直接用预计算好的结果页，其他的从倒排索引取出这一页的店铺id，再批量查详情
+        List<Long> ids = hotSearchPages.get(name, current);
+        if (ids == null) {
+            int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+            ids = shopNameIndex.search(name, from, SystemConstants.MAX_PAGE_SIZE);
+        }
+        return Result.ok(ids.isEmpty() ? Collections.emptyList() : listByIdsCached(ids));
+    }
+
+    @Override
+    public Result hotKeywords(Integer size) {
+        int n = size == null || size < 1 ? SystemConstants.MAX_PAGE_SIZE : Math.min(size, SystemConstants.MAX_BATCH_SIZE);
+        return Result.ok(searchKeywordTracker.hot(n));
+    }
+
+    @Override
+    public Result suggest(String prefix, Integer size) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.ok(Collections.emptyList());
+        }
+        int k = size == null || size < 1 ? SystemConstants.MAX_PAGE_SIZE : Math.min(size, SystemConstants.MAX_PAGE_SIZE);
+        //1、索引建好了直接查内存
+        if (shopSuggestIndex.isReady()) {
+            return Result.ok(shopSuggestIndex.suggest(prefix, k));
+        }
+        //2、索引还没建好，只按店铺名称前缀查数据库
+        List<Shop> shops = query()
+                .select("id", "name", "score", "sold")
+                .likeRight("name", prefix.trim())
+                .orderByDesc("sold", "score")
+                .last("limit " + k)
+                .list();
+        List<ShopSuggestion> suggestions = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            long weight = (shop.getSold() == null ? 0L : shop.getSold()) * 100
+                    + (shop.getScore() == null ? 0 : shop.getScore());
+            suggestions.add(new ShopSuggestion(ShopSuggestion.SHOP, shop.getName(), shop.getId(), weight));
+        }
+        return Result.ok(suggestions);
+    }
+
+    @Override
+    public Result filter(ShopFilterDTO filter) {
+        if (!shopFilterIndex.isReady()) {
+            return Result.fail("店铺筛选索引正在构建，请稍后再试");
+        }
+        if (StrUtil.isNotBlank(filter.getSortBy()) && !ShopRankBoard.METRICS.contains(filter.getSortBy())) {
+            return Result.fail("不支持的排序方式：" + filter.getSortBy());
+        }
+        try {
+            if (filter.openTime() != null && !shopOpenHoursIndex.isReady()) {
+                return Result.fail("营业时间索引正在构建，请稍后再试");
+            }
+        } catch (DateTimeParseException e) {
+            return Result.fail("营业时间格式错误：" + filter.getOpenAt());
+        }
+        //1、在本地位图索引上筛选出这一页的店铺id
+        int current = filter.getCurrent() == null || filter.getCurrent() < 1 ? 1 : filter.getCurrent();
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        List<Long> ids = new ArrayList<>(SystemConstants.DEFAULT_PAGE_SIZE);
+        int total = shopFilterIndex.filter(filter, from, SystemConstants.DEFAULT_PAGE_SIZE, ids);
+        //2、批量查详情
+        List<Shop> shops = ids.isEmpty() ? Collections.emptyList() : listByIdsCached(ids);
+        return Result.ok(shops, (long) total);
+    }
+
+    @Override
+    public Result scrollByType(Integer typeId, String cursor) {
+        //1、解析游标：上一页最后一家店的id
+        long[] last;
+        try {
+            last = ScrollCursor.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("游标格式错误");
+        }
+        //2、在(type_id, id)索引上直接定位，多查一条用来判断有没有下一页
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(last != null, "id", last == null ? null : last[0])
+                .orderByAsc("id")
+                .last("limit " + (size + 1))
+                .list();
+        //3、封装结果
+        ScrollResult r = new ScrollResult();
+        if (shops.size() > size) {
+            shops = shops.subList(0, size);
+            r.setCursor(ScrollCursor.encode(shops.get(size - 1).getId()));
+        }
+        r.setList(shops);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryNearby(Integer typeId, Double x, Double y, Double radius,
+                              Double lastDistance, Long lastId, LocalTime openAt) {
+        if (!shopGridIndex.isEnabled()) {
+            return Result.fail("未开启本地附近店铺索引");
+        }
+        if (openAt != null && !shopOpenHoursIndex.isReady()) {
+            return Result.fail("营业时间索引正在构建，请稍后再试");
+        }
+        //1、上一页最后一家店作为游标，需要营业的话在网格里顺便用营业时间位图过滤
+        GeoGrid.Hit after = lastId == null || lastDistance == null ? null : new GeoGrid.Hit(lastId, lastDistance);
+        LongPredicate accept = openAt == null ? null : id -> shopOpenHoursIndex.isOpen(id, openAt);
+        //2、没传半径按最近的k家查，传了就查半径内的
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<GeoGrid.Hit> hits = radius == null
+                ? shopGridIndex.nearest(typeId.longValue(), x, y, size, geoRadiusMeters, after, accept)
+                : shopGridIndex.within(typeId.longValue(), x, y, Math.min(radius, geoRadiusMeters), size, after, accept);
+        return Result.ok(withDistance(toDistances(hits)));
+    }
+
+    private static Map<Long, Double> toDistances(List<GeoGrid.Hit> hits) {
+        Map<Long, Double> distances = new LinkedHashMap<>(hits.size() * 2);
+        for (GeoGrid.Hit hit : hits) {
+            distances.put(hit.getId(), hit.getDistance());
+        }
+        return distances;
+    }
+
+    //批量查店铺详情并填上距离；缓存里的对象是共享的，要复制一份再改
+    private List<Shop> withDistance(Map<Long, Double> distances) {
+        if (distances.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = new ArrayList<>(distances.size());
+        for (Shop shop : listByIdsCached(new ArrayList<>(distances.keySet()))) {
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distances.get(shop.getId()));
+            shops.add(copy);
+        }
+        return shops;
+    }
+
+    //管道批量回填：存在的按当前缓存策略写（逻辑过期或带抖动TTL的旁路缓存），不存在的写空值
+    private void backfill(List<Long> missIds, Map<Long, Shop> found, long rebuildMillis) {
+        boolean aside = "aside".equals(cacheStrategy);
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(CACHE_SHOP_LOGICAL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            RedisStringCommands commands = connection.stringCommands();
+            for (Long id : missIds) {
+                byte[] key = (CACHE_SHOP_KEY + id).getBytes(StandardCharsets.UTF_8);
+                Shop shop = found.get(id);
+                if (shop == null) {
+                    commands.set(key, new byte[0], Expiration.seconds(CACHE_NULL_TTL),
+                            RedisStringCommands.SetOption.upsert());
+                    continue;
+                }
+                if (aside) {
+                    //旁路缓存要有真实TTL，否则抖动和XFetch都不起作用
+                    long ttl = jitter(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL));
+                    commands.set(key, encodeAside(shop, ttl, rebuildMillis), Expiration.seconds(ttl),
+                            RedisStringCommands.SetOption.upsert());
+                    continue;
+                }
+                RedisData redisData = new RedisData();
+                redisData.setData(shop);
+                redisData.setExpireTime(expireTime);
+                commands.set(key, shopCacheCodec.encode(redisData));
+            }
+            return null;
+        });
+    }
+
+    //在重建线程里执行：先抢分布式互斥锁，防止多个节点同时重建
+    private void rebuildWithLock(Long id) {
+        //1 获取互斥锁，失败说明其他节点正在重建
+        String lockKey =  LOCK_SHOP_KEY + id;
+        if (!tryLock(lockKey)) {
+            return;
+        }
+        try {
+            //2 double check：其他节点可能刚重建完，没过期就不用再重建了
+            //  没有过期时间的是旁路缓存写入的，和resolveLogicalExpire一样按未过期处理
+            byte[] shopBytes = getCache(CACHE_SHOP_KEY + id);
+            if (shopBytes != null && shopBytes.length > 0) {
+                LocalDateTime expireTime = shopCacheCodec.decode(shopBytes).getExpireTime();
+                if (expireTime == null || expireTime.isAfter(LocalDateTime.now())) {
+                    return;
+                }
+            }
+            //3 重建缓存
+            this.saveShop2Redis(id, 20L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unlock(lockKey);
+        }
     }
 
 
@@ -161,8 +800,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(time));
 
         //存入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        setCache(CACHE_SHOP_KEY + id, shopCacheCodec.encode(redisData), -1);
+        //本节点的一级缓存也换成重建后的，其他节点的旧条目最迟到旧的逻辑过期时间就失效了
+        shopLocalCache.put(id, shop, redisData.getExpireTime());
+
+    }
 
+    //按字节读缓存，序列化交给codec
+    private byte[] getCache(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    //按字节写缓存，ttlSeconds小于0表示不过期
+    private void setCache(String key, byte[] value, long ttlSeconds) {
+        Expiration expiration = ttlSeconds < 0 ? Expiration.persistent() : Expiration.seconds(ttlSeconds);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value,
+                        expiration, RedisStringCommands.SetOption.upsert()));
     }
 
     //上互斥锁
@@ -177,6 +832,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.delete(key);
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1、写入数据库
+        save(shop);
+        // 2、加入布隆过滤器，并广播给其他节点
+        shopBloomFilter.put(shop.getId());
+        shopChangeNotifier.publish(shop.getId());
+        // 3、加入GEO索引和排行榜
+        shopGeoIndex.add(shop);
+        shopRankBoard.sync(Collections.singletonList(shop.getId()), Collections.singletonList(shop));
+        return Result.ok(shop.getId());
+    }
+
     @Transactional
     @Override
     public Result update (Shop shop){
@@ -192,8 +860,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 缓存更新失败，抛出异常，事务回滚
             throw new RuntimeException("数据库更新失败");
         }
-        // 2、再删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 2、在同一个事务里写入缓存失效记录，提交后由后台批量删除缓存并广播，失败会重试
+        cacheOutboxService.record(id);
 
         return Result.ok();
 
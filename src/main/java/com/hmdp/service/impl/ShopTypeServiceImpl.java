@@ -1,11 +1,30 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +33,85 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @Override
+    public ShopTypeSnapshot snapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        // 第一次访问时加载，之后由定时任务检查版本
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = load(currentVersion());
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 定时检查Redis里的版本号，变了才重新加载
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.check-ms:1000}")
+    public void checkVersion() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        try {
+            long version = currentVersion();
+            if (version != current.getVersion()) {
+                snapshot = load(version);
+                log.info("店铺类型快照已更新, version={}", version);
+            }
+        } catch (Exception e) {
+            // 检查失败就继续用旧快照
+            log.error("检查店铺类型版本失败", e);
+        }
+    }
+
+    @Override
+    public long bumpVersion() {
+        Long version = stringRedisTemplate.opsForValue().increment(SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0 : version;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    private ShopTypeSnapshot load(long version) {
+        // 1、先查这个版本在Redis里的缓存，同一个版本只有第一个节点需要查数据库
+        String key = CACHE_SHOP_TYPE_KEY + version;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        List<ShopType> types;
+        if (StrUtil.isNotBlank(json)) {
+            types = JSONUtil.toList(json, ShopType.class);
+        } else {
+            // 2、未命中，查询数据库并写入Redis
+            types = query().orderByAsc("sort").list();
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(types), CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        }
+        // 3、提前序列化好响应体，ETag用内容的摘要，版本号被重置也不会误判
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        String etag = "\"" + SecureUtil.md5().digestHex(body).substring(0, 16) + "\"";
+        return new ShopTypeSnapshot(version, Collections.unmodifiableList(types), body, etag);
+    }
 }
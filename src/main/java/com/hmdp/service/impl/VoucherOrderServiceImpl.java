@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
@@ -9,29 +10,63 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
+
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -45,7 +80,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
 
 
 
@@ -98,115 +137,501 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //
 //    }
 
+
     /**
      * 加载 判断秒杀券库存是否充足 并且 判断用户是否已下单 的Lua脚本
      */
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<String> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(String.class);
     }
 
-    //存储订单的阻塞队列
-    //todo 优化消息队列（思考一下有没有用的必要）
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    //订单消息队列改成了Redis Stream：Lua脚本扣库存的同时XADD订单，服务重启不会丢，也不占JVM的堆
+    //所有节点在同一个消费者组里读，处理完XACK，没确认的由恢复逻辑重新认领
+    //节点内一个线程读Stream，按用户id哈希分给多个分区线程写库，同一个用户的订单总在同一个分区里按顺序处理
+    private ExecutorService orderExecutor;
+
+    /**
+     * 消费者组，所有节点共用，每条订单只会投递给其中一个节点
+     */
+    @Value("${hmdp.seckill.stream.group:order-group}")
+    private String group;
+
+    /**
+     * 一批最多多少条订单，一批订单在一个事务里写入
+     */
+    @Value("${hmdp.seckill.batch.max-size:100}")
+    private int batchSize;
+
+    /**
+     * 从这一批的第一条订单到达起，最多再等多久凑满一批
+     */
+    @Value("${hmdp.seckill.batch.max-wait-ms:50}")
+    private long batchMaxWaitMillis;
+
+    /**
+     * 写库的分区数，为0时取CPU核数；每个分区同时占用一个数据库连接，不要超过连接池大小
+     */
+    @Value("${hmdp.seckill.partition.count:0}")
+    private int partitionCount;
+
+    /**
+     * 每个分区队列的容量，满了以后读Stream的线程会等待，订单留在Stream里不会堆在内存
+     */
+    @Value("${hmdp.seckill.partition.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${hmdp.seckill.stream.block-ms:2000}")
+    private long blockMillis;
+
+    /**
+     * 投递后超过这么久还没确认的订单，认为处理它的节点挂了或者处理失败了，重新认领
+     */
+    @Value("${hmdp.seckill.stream.claim-idle-ms:30000}")
+    private long claimIdleMillis;
+
+    /**
+     * 超过这个投递次数还处理不了的订单转到死信Stream，等人工处理
+     */
+    @Value("${hmdp.seckill.stream.max-deliveries:5}")
+    private long maxDeliveries;
+
+    @Value("${server.port:8081}")
+    private int serverPort;
+
+    /**
+     * 本类的代理对象，子线程里调用事务方法要通过它，不然事务不生效
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
 
-    //线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //消费者名称，同一个节点重启后名字不变，可以接着处理上次没确认的订单
+    private String consumerName;
+    private volatile boolean running = true;
+    private volatile long lastRecoverMillis;
+    private OrderPartition[] partitions;
+    //已经分给分区、还没处理完的消息id，认领时跳过，避免排队久了被自己重复认领
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
 
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
 
+    //批量写入的统计
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchOrders = new LongAdder();
+    private final LongAdder batchNanos = new LongAdder();
+    private final LongAccumulator maxBatchNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder batchFallbacks = new LongAdder();
+    private volatile int lastBatchSize;
+    private volatile double lastBatchMillis;
 
     /**
-     * 线程任务: 不断从阻塞队列中获取订单
+     * 线程任务: 不断从Stream中读取订单，分给各个分区
      */
     private class VoucherOrderHandler implements Runnable {
         @Override
         public void run() {
-            while (true) {
-                // 从阻塞队列中获取订单信息，并创建订单
+            while (running) {
                 try {
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    handleVoucherOrder(voucherOrder);
+                    // 1、定时认领长时间没确认的订单，包括自己处理失败的
+                    if (System.currentTimeMillis() - lastRecoverMillis >= claimIdleMillis) {
+                        lastRecoverMillis = System.currentTimeMillis();
+                        recoverPending();
+                    }
+                    // 2、读新的订单 XREADGROUP GROUP g c COUNT n BLOCK ms STREAMS key >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(group, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    for (MapRecord<String, Object, Object> record : records) {
+                        dispatch(record.getId(), record.getValue());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
+                    if (String.valueOf(e.getMessage()).contains("NOGROUP")) {
+                        // Stream被删掉了，重新建消费者组
+                        createGroupIfAbsent();
+                    }
+                    sleepQuietly(1000);
                 }
             }
         }
     }
 
-        /**
-         * 当前类初始化完毕就立马执行该方法
-         */
-        @PostConstruct
-        private void init() {
-            // 执行线程任务
-            SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-        }
-
-        /**
-         * 创建订单
-         *
-         * @param voucherOrder
-         */
-        private void handleVoucherOrder(VoucherOrder voucherOrder) {
-            Long userId = voucherOrder.getUserId();
-            RLock lock = redissonClient.getLock(RedisConstants.LOCK_ORDER_KEY + userId);
-            boolean isLock = lock.tryLock();
-            if (!isLock) {
-                // 索取锁失败，重试或者直接抛异常（这个业务是一人一单，所以直接返回失败信息）
-                log.error("一人只能下一单");
-                return;
+    /**
+     * 一个写库分区：从自己的队列里攒一批订单，一个事务写入
+     */
+    private class OrderPartition implements Runnable {
+        final int index;
+        final BlockingQueue<QueuedOrder> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final LongAdder processed = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        volatile double lastBatchMillis;
+
+        OrderPartition(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            // 停止时把队列里剩下的处理完，没处理的也还在待确认列表里
+            while (running || !queue.isEmpty()) {
+                try {
+                    QueuedOrder first = queue.poll(blockMillis, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    List<QueuedOrder> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    long deadline = System.currentTimeMillis() + batchMaxWaitMillis;
+                    while (batch.size() < batchSize) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        long wait = deadline - System.currentTimeMillis();
+                        if (batch.size() >= batchSize || wait <= 0) {
+                            break;
+                        }
+                        QueuedOrder next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    handleBatch(this, batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("分区{}处理订单异常", index, e);
+                }
+            }
+        }
+
+        Map<String, Object> stats() {
+            QueuedOrder head = queue.peek();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("partition", index);
+            stats.put("queued", queue.size());
+            stats.put("lagMillis", head == null ? 0 : System.currentTimeMillis() - head.enqueuedAt);
+            stats.put("processed", processed.sum());
+            stats.put("batches", batches.sum());
+            stats.put("lastBatchMillis", lastBatchMillis);
+            return stats;
+        }
+    }
+
+    private static class QueuedOrder {
+        final RecordId recordId;
+        final Map<?, ?> value;
+        final VoucherOrder order;
+        final long enqueuedAt = System.currentTimeMillis();
+
+        QueuedOrder(RecordId recordId, Map<?, ?> value, VoucherOrder order) {
+            this.recordId = recordId;
+            this.value = value;
+            this.order = order;
+        }
+    }
+
+    /**
+     * 当前类初始化完毕就立马执行该方法
+     */
+    @PostConstruct
+    private void init() {
+        consumerName = NetUtil.getLocalHostName() + ":" + serverPort;
+        createGroupIfAbsent();
+        int n = partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors();
+        partitions = new OrderPartition[n];
+        orderExecutor = Executors.newFixedThreadPool(n + 1);
+        for (int i = 0; i < n; i++) {
+            partitions[i] = new OrderPartition(i);
+            orderExecutor.submit(partitions[i]);
+        }
+        // 执行线程任务
+        orderExecutor.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        orderExecutor.shutdown();
+        orderExecutor.awaitTermination(blockMillis * 2, TimeUnit.MILLISECONDS);
+    }
+
+    //XGROUP CREATE key group 0 MKSTREAM，组已经存在时忽略
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(bytes(SECKILL_ORDER_STREAM), group, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                log.error("创建订单消费者组失败", e);
+            }
+        }
+    }
+
+    /**
+     * 按用户id分给固定的分区，分区队列满了就等着，不再往下读Stream
+     */
+    private void dispatch(RecordId recordId, Map<?, ?> value) throws InterruptedException {
+        VoucherOrder order = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        if (order.getUserId() == null || order.getVoucherId() == null || order.getId() == null) {
+            deadLetter(recordId, value);
+            return;
+        }
+        inFlight.add(recordId.getValue());
+        OrderPartition partition = partitions[Math.floorMod(order.getUserId().hashCode(), partitions.length)];
+        partition.queue.put(new QueuedOrder(recordId, value, order));
+    }
+
+    /**
+     * 一批订单在一个事务里写入，成功后一起确认；失败的话退回到逐条处理，找出有问题的那条
+     */
+    private void handleBatch(OrderPartition partition, List<QueuedOrder> batch) {
+        long begin = System.nanoTime();
+        List<VoucherOrder> orders = new ArrayList<>(batch.size());
+        RecordId[] recordIds = new RecordId[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            orders.add(batch.get(i).order);
+            recordIds[i] = batch.get(i).recordId;
+        }
+        try {
+            proxy.createVoucherOrders(orders);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, group, recordIds);
+            stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, recordIds);
+        } catch (Exception e) {
+            batchFallbacks.increment();
+            log.warn("批量创建订单失败，改为逐条处理, 分区={}, 条数={}", partition.index, batch.size(), e);
+            for (QueuedOrder queued : batch) {
+                if (handleRecord(queued.recordId, queued.value, queued.order)) {
+                    partition.processed.increment();
+                }
             }
-            try {
-                // 创建订单（使用代理对象调用，是为了确保事务生效）
-                proxy.createVoucherOrder(voucherOrder);
-            } finally {
-                lock.unlock();
+            return;
+        } finally {
+            for (RecordId recordId : recordIds) {
+                inFlight.remove(recordId.getValue());
             }
         }
+        long cost = System.nanoTime() - begin;
+        processed.add(batch.size());
+        partition.processed.add(batch.size());
+        partition.batches.increment();
+        partition.lastBatchMillis = cost / 1e6;
+        batches.increment();
+        batchOrders.add(batch.size());
+        batchNanos.add(cost);
+        maxBatchNanos.accumulate(cost);
+        lastBatchSize = batch.size();
+        lastBatchMillis = cost / 1e6;
+    }
+
+    /**
+     * 处理一条订单，成功后XACK并从Stream里删掉；失败的留在待确认列表里等下次认领
+     *
+     * @return 是否处理成功
+     */
+    private boolean handleRecord(RecordId recordId, Map<?, ?> value, VoucherOrder voucherOrder) {
+        try {
+            // 创建订单（使用代理对象调用，是为了确保事务生效）
+            // 同一个用户的订单只会在同一个分区里串行处理，不再需要分布式锁，跨节点的重复投递由唯一索引兜底
+            proxy.createVoucherOrder(voucherOrder);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, group, recordId);
+            stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, recordId);
+            processed.increment();
+            return true;
+        } catch (Exception e) {
+            failed.increment();
+            log.error("处理订单失败, 消息id={}, 订单={}", recordId, value, e);
+            return false;
+        }
+    }
 
-        /**
-         * VoucherOrderServiceImpl类的代理对象
-         * 将代理对象的作用域进行提升，方面子线程取用
-         */
-        private IVoucherOrderService proxy;
-
-
-        @Transactional
-        public Result seckillVoucher(Long voucherId) {
-            // 1、执行Lua脚本，判断用户是否具有秒杀资格
-            Long result = null;
-            try {
-                result = stringRedisTemplate.execute(
-                        SECKILL_SCRIPT,
-                        Collections.emptyList(),
-                        voucherId.toString(),
-                        UserHolder.getUser().getId().toString()
-                );
-            } catch (Exception e) {
-                log.error("Lua脚本执行失败");
-                throw new RuntimeException(e);
+    /**
+     * 认领待确认列表里空闲太久的订单：投递次数太多的转到死信，其余的重新分给分区
+     */
+    private void recoverPending() throws InterruptedException {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM, group, Range.unbounded(), batchSize * 10L);
+        List<String> retryIds = new ArrayList<>();
+        Map<String, Long> deliveries = new HashMap<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMillis
+                    && !inFlight.contains(message.getIdAsString())) {
+                retryIds.add(message.getIdAsString());
+                deliveries.put(message.getIdAsString(), message.getTotalDeliveryCount());
+            }
+        }
+        if (retryIds.isEmpty()) {
+            return;
+        }
+        // XCLAIM 带上最小空闲时间，多个节点同时认领同一条时只有一个能成功
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(bytes(SECKILL_ORDER_STREAM), group, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdleMs(claimIdleMillis).ids(retryIds.toArray(new String[0]))));
+        if (records == null) {
+            return;
+        }
+        for (ByteRecord record : records) {
+            claimed.increment();
+            Map<String, String> value = new LinkedHashMap<>();
+            record.getValue().forEach((k, v) ->
+                    value.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+            RecordId recordId = record.getId();
+            if (deliveries.getOrDefault(recordId.getValue(), 0L) >= maxDeliveries) {
+                deadLetter(recordId, value);
+            } else {
+                dispatch(recordId, value);
             }
-            if (result != null && !result.equals(0L)) {
-                // result为1表示库存不足，result为2表示用户已下单
-                int r = result.intValue();
-                return Result.fail(r == 2 ? "不能重复下单" : "库存不足");
+        }
+    }
+
+    //转到死信Stream后再确认，顺序反过来的话中间挂掉订单就丢了
+    private void deadLetter(RecordId recordId, Map<?, ?> value) {
+        Map<String, String> dead = new LinkedHashMap<>();
+        value.forEach((k, v) -> dead.put(String.valueOf(k), String.valueOf(v)));
+        dead.put("sourceId", recordId.getValue());
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DEAD_STREAM, dead);
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, group, recordId);
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, recordId);
+        deadLettered.increment();
+        log.error("订单多次处理失败，已转入死信, 消息id={}, 订单={}", recordId, value);
+    }
+
+    public Result seckillVoucher(Long voucherId) {
+        // 0、本节点已经知道售罄了，不用再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        Long userId = UserHolder.getUser().getId();
+        int shards = seckillStockShards.shardCount(voucherId);
+        if (shards > 1) {
+            return seckillSharded(voucherId, userId, shards);
+        }
+        // 1、执行Lua脚本，判断用户是否具有秒杀资格，有资格的话在脚本里生成订单id并写入Stream
+        //    没资格的请求不会去自增订单id的计数器
+        LocalDateTime now = LocalDateTime.now();
+        String result;
+        try {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM,
+                            redisIdWorker.counterKey("order", now)),
+                    voucherId.toString(),
+                    userId.toString(),
+                    String.valueOf(redisIdWorker.timestamp(now))
+            );
+        } catch (Exception e) {
+            log.error("Lua脚本执行失败");
+            throw new RuntimeException(e);
+        }
+        if (result == null) {
+            throw new IllegalStateException("秒杀脚本没有返回结果");
+        }
+        if ("1".equals(result) || "2".equals(result)) {
+            // result为1表示库存不足，result为2表示用户已下单
+            if ("1".equals(result)) {
+                soldOutRegistry.markSoldOut(voucherId);
             }
-            // 2、result为0，用户具有秒杀资格，将订单保存到阻塞队列中，实现异步下单
-            long orderId = redisIdWorker.nextId("order");
-            // 创建订单
-            VoucherOrder voucherOrder = new VoucherOrder();
-            voucherOrder.setId(orderId);
-            voucherOrder.setUserId(UserHolder.getUser().getId());
-            voucherOrder.setVoucherId(voucherId);
-            // 将订单保存到阻塞队列中
-            orderTasks.add(voucherOrder);
-            // 索取锁成功，创建代理对象，使用代理对象调用第三方事务方法， 防止事务失效
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            this.proxy = proxy;
-            return Result.ok();
+            return Result.fail("2".equals(result) ? "不能重复下单" : "库存不足");
         }
+        // 2、返回的是订单id，订单已经进入Stream，由消费者异步写入数据库
+        return Result.ok(Long.valueOf(result));
+    }
+
+    /**
+     * 分片库存的秒杀：库存和已下单用户分散在多个槽里，订单Stream在另一个槽，
+     * 扣库存成功后再单独XADD，没写进去的由对账任务补发
+     */
+    private Result seckillSharded(Long voucherId, Long userId, int shards) {
+        // 1、在分片上扣库存、登记一人一单
+        int shard = seckillStockShards.acquire(voucherId, userId, shards);
+        if (shard == -SeckillStockShards.DUPLICATE) {
+            return Result.fail("不能重复下单");
+        }
+        if (shard == -SeckillStockShards.SOLD_OUT) {
+            soldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        if (shard == -SeckillStockShards.RETRY) {
+            // 没扣到但还不能确认售罄，不打售罄标记
+            return Result.fail("库存紧张，请稍后重试");
+        }
+        // 2、扣到了库存才生成订单id，再写入Stream
+        long orderId;
+        try {
+            orderId = redisIdWorker.nextId("order");
+            seckillStockShards.complete(voucherId, userId, shards, shard, orderId);
+        } catch (Exception e) {
+            // 库存已经扣了，待完成记录还在，对账任务会补发，这里不退库存
+            log.error("秒杀订单写入Stream失败，等待对账补发, voucherId={}, userId={}", voucherId, userId, e);
+            return Result.fail("下单处理中，请稍后查看订单");
+        }
+        return Result.ok(orderId);
+    }
+
+    @Override
+    public Map<String, Object> streamStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("consumer", consumerName);
+        stats.put("group", group);
+        stats.put("processed", processed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("claimed", claimed.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        long batchCount = batches.sum();
+        long orderCount = batchOrders.sum();
+        double batchMillis = batchNanos.sum() / 1e6;
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("batches", batchCount);
+        batch.put("orders", orderCount);
+        batch.put("avgBatchSize", batchCount == 0 ? 0 : (double) orderCount / batchCount);
+        batch.put("avgBatchMillis", batchCount == 0 ? 0 : batchMillis / batchCount);
+        batch.put("maxBatchMillis", maxBatchNanos.get() / 1e6);
+        // 只算写库的时间，不含等待凑批
+        batch.put("ordersPerSecond", batchMillis == 0 ? 0 : orderCount * 1000 / batchMillis);
+        batch.put("lastBatchSize", lastBatchSize);
+        batch.put("lastBatchMillis", lastBatchMillis);
+        batch.put("fallbacks", batchFallbacks.sum());
+        stats.put("batch", batch);
+        List<Map<String, Object>> partitionStats = new ArrayList<>(partitions.length);
+        for (OrderPartition partition : partitions) {
+            partitionStats.add(partition.stats());
+        }
+        stats.put("partitions", partitionStats);
+        try {
+            stats.put("streamLength", stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM));
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM, group);
+            stats.put("pending", summary == null ? 0 : summary.getTotalPendingMessages());
+            stats.put("pendingPerConsumer", summary == null ? null : summary.getPendingMessagesPerConsumer());
+            stats.put("deadLetterLength", stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DEAD_STREAM));
+        } catch (Exception e) {
+            stats.put("error", e.getMessage());
+        }
+        return stats;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
         // 1/14 改造了该函数
 //    @Transactional
@@ -249,39 +674,79 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        return Result.ok(orderId);
 //        }
 
-        /**
-         * 创建订单
-         *
-         * @param voucherOrder
-         * @return
-         */
-        @Transactional
-        public void createVoucherOrder(VoucherOrder voucherOrder) {
-            Long userId = voucherOrder.getUserId();
-            Long voucherId = voucherOrder.getVoucherId();
-            // 1、判断当前用户是否是第一单
-            int count = query().eq(
-                    "user id",userId).eq(
-                    "voucher id",voucherOrder).count();
-            if (count >= 1) {
-                // 当前用户不是第一单
-                log.error("当前用户不是第一单");
-                return;
-            }
-            // 2、用户是第一单，可以下单，秒杀券库存数量减一
-            boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
-                    .eq(SeckillVoucher::getVoucherId, voucherId)
-                    .gt(SeckillVoucher::getStock, 0)
-                    .setSql("stock = stock -1"));
-            if (!flag) {
-                throw new RuntimeException("秒杀券扣减失败");
-            }
-            // 3、将订单保存到数据库
-            flag = save(voucherOrder);
-            if (!flag) {
-                throw new RuntimeException("创建秒杀券订单失败");
-            }
+    /**
+     * 创建订单，同一条订单可能被投递多次，已经存在的直接返回
+     *
+     * @param voucherOrder
+     * @return
+     */
+    @Transactional
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
+        // 1、判断当前用户是否是第一单
+        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
+        if (count >= 1) {
+            // 当前用户不是第一单，可能是重复投递的同一条订单
+            log.error("当前用户不是第一单");
+            return;
+        }
+        // 2、用户是第一单，可以下单，秒杀券库存数量减一
+        boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                .eq(SeckillVoucher::getVoucherId, voucherId)
+                .gt(SeckillVoucher::getStock, 0)
+                .setSql("stock = stock -1"));
+        if (!flag) {
+            throw new RuntimeException("秒杀券扣减失败");
         }
+        // 3、将订单保存到数据库
+        flag = save(voucherOrder);
+        if (!flag) {
+            throw new RuntimeException("创建秒杀券订单失败");
+        }
+    }
 
+    /**
+     * 批量创建订单：一条多行INSERT，每张券一条 stock = stock - k
+     * 同一个用户同一张券只保留一条，已经存在的（重复投递）跳过，唯一索引兜底
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1、去掉这一批里重复的，再去掉数据库里已经有的
+        Map<String, VoucherOrder> orders = new LinkedHashMap<>();
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder order : voucherOrders) {
+            orders.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
+        }
+        List<VoucherOrder> existing = query().select("user_id", "voucher_id")
+                .in("voucher_id", voucherIds).in("user_id", userIds).list();
+        for (VoucherOrder order : existing) {
+            orders.remove(order.getUserId() + ":" + order.getVoucherId());
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+        // 2、按券id顺序扣库存，多个事务同时扣时加锁顺序一致，不会死锁
+        Map<Long, Integer> counts = new TreeMap<>();
+        for (VoucherOrder order : orders.values()) {
+            counts.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        counts.forEach((voucherId, k) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", k)
+                    .update();
+            if (!success) {
+                throw new RuntimeException("秒杀券库存不足, voucherId=" + voucherId + ", 需要=" + k);
+            }
+        });
+        // 3、一条多行INSERT写入订单
+        getBaseMapper().insertBatch(new ArrayList<>(orders.values()));
     }
 
+}
@@ -7,14 +7,20 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -30,6 +36,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private SeckillStockShards seckillStockShards;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -51,8 +61,42 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set("seckill:order" + voucher.getId(),voucher.getStock().toString());
+        // 保存秒杀库存到Redis中，库存大的券按配置拆成多个分片
+        if (seckillStockShards.shouldShard(voucher.getStock())) {
+            seckillStockShards.init(voucher.getId(), voucher.getStock());
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        }
 
     }
+
+    @Override
+    @Transactional
+    public Result restockSeckillVoucher(Long voucherId, Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1、数据库加库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2、提交以后再加Redis库存、清除售罄标记，回滚了就什么都不做
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                int shards = seckillStockShards.shardCount(voucherId);
+                if (shards > 1) {
+                    seckillStockShards.restock(voucherId, amount, shards);
+                } else {
+                    stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, amount);
+                }
+                soldOutRegistry.clear(voucherId);
+            }
+        });
+        return Result.ok();
+    }
 }
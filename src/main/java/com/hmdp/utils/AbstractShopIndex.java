@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地店铺索引的公共部分：全量构建，构建期间记下发生变更的店铺，构建完用它们最新的数据再补一遍
+ * 店铺变更由 {@link ShopChangeNotifier} 在后台线程里查一次数据库，把整行数据传给所有索引，索引自己不查库
+ */
+@Slf4j
+public abstract class AbstractShopIndex {
+
+    //构建期间被删除的店铺，ConcurrentHashMap里不能放null
+    private static final Shop DELETED = new Shop();
+
+    private final String name;
+    private final Object rebuildLock = new Object();
+    //全量构建期间发生变更的店铺 -> 最新的数据
+    private volatile Map<Long, Shop> changedDuringRebuild;
+
+    //第一次构建完成前，调用方应该退回到数据库查询
+    private volatile boolean ready = false;
+    private volatile long lastRebuildMillis;
+    private volatile LocalDateTime lastRebuildTime;
+
+    protected AbstractShopIndex(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 全量扫描数据库构建新的索引，构建完一次性替换
+     *
+     * @return 扫描到的店铺数
+     */
+    protected abstract long build();
+
+    /**
+     * 更新一家店铺
+     *
+     * @param shop 最新的数据，店铺已经删除时为null
+     */
+    protected abstract void apply(Long shopId, Shop shop);
+
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            changedDuringRebuild = new ConcurrentHashMap<>();
+            try {
+                long begin = System.currentTimeMillis();
+                long count = build();
+                ready = true;
+                lastRebuildMillis = System.currentTimeMillis() - begin;
+                lastRebuildTime = LocalDateTime.now();
+                log.info("{}构建完成, 店铺数={}, 耗时={}ms", name, count, lastRebuildMillis);
+            } catch (Exception e) {
+                log.error("{}构建失败", name, e);
+            } finally {
+                Map<Long, Shop> changed = changedDuringRebuild;
+                changedDuringRebuild = null;
+                changed.forEach((shopId, shop) -> applySafely(shopId, shop == DELETED ? null : shop));
+            }
+        }
+    }
+
+    /**
+     * 店铺变更，在 {@link ShopChangeNotifier} 的后台线程里回调
+     *
+     * @param shop 最新的数据，店铺已经删除时为null
+     */
+    public void onShopChanged(Long shopId, Shop shop) {
+        Map<Long, Shop> changed = changedDuringRebuild;
+        if (changed != null) {
+            changed.put(shopId, shop == null ? DELETED : shop);
+        }
+        apply(shopId, shop);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    protected long getLastRebuildMillis() {
+        return lastRebuildMillis;
+    }
+
+    protected LocalDateTime getLastRebuildTime() {
+        return lastRebuildTime;
+    }
+
+    private void applySafely(Long shopId, Shop shop) {
+        try {
+            apply(shopId, shop);
+        } catch (Exception e) {
+            // 下次全量构建会修正
+            log.warn("{}更新失败, shopId={}", name, shopId, e);
+        }
+    }
+}
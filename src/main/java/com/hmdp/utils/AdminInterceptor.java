@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import cn.hutool.http.HttpStatus;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+//运维接口的拦截：在登录拦截器之后，只放行配置里的管理员
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(HttpStatus.HTTP_UNAUTHORIZED);
+            return false;
+        }
+        // 不在管理员名单里，拒绝访问
+        if (!adminIds.contains(user.getId())) {
+            response.setStatus(HttpStatus.HTTP_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+}
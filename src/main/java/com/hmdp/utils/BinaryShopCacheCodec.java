@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 紧凑的二进制格式，比JSON省内存和带宽，反序列化也只解析一次
+ * 格式：魔数(1字节) + 版本(1字节) + 类型(1字节) + [逻辑过期时间 + 重建耗时(v2)] + 字段位图(varint) + 各个非空字段
+ * 整数用varint，时间存UTC秒数和纳秒，字符串存UTF-8长度和内容
+ * 读到不是魔数开头的数据（旧的JSON缓存）时按JSON解析
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "binary", matchIfMissing = true)
+public class BinaryShopCacheCodec implements ShopCacheCodec {
+
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final byte VERSION_1 = 1;
+    //v2在逻辑过期时间后面加了重建耗时
+    private static final byte VERSION_2 = 2;
+    private static final byte TYPE_REDIS_DATA = 'E';
+    private static final byte TYPE_SHOP = 'S';
+
+    private static final int F_ID = 1;
+    private static final int F_NAME = 1 << 1;
+    private static final int F_TYPE_ID = 1 << 2;
+    private static final int F_IMAGES = 1 << 3;
+    private static final int F_AREA = 1 << 4;
+    private static final int F_ADDRESS = 1 << 5;
+    private static final int F_X = 1 << 6;
+    private static final int F_Y = 1 << 7;
+    private static final int F_AVG_PRICE = 1 << 8;
+    private static final int F_SOLD = 1 << 9;
+    private static final int F_COMMENTS = 1 << 10;
+    private static final int F_SCORE = 1 << 11;
+    private static final int F_OPEN_HOURS = 1 << 12;
+    private static final int F_CREATE_TIME = 1 << 13;
+    private static final int F_UPDATE_TIME = 1 << 14;
+
+    //旧数据兜底
+    private final JsonShopCacheCodec jsonCodec = new JsonShopCacheCodec();
+
+    @Override
+    public byte[] encode(RedisData redisData) {
+        Writer w = new Writer(256);
+        w.header(TYPE_REDIS_DATA);
+        w.dateTime(redisData.getExpireTime());
+        w.varLong(redisData.getRebuildMillis() == null ? -1 : redisData.getRebuildMillis());
+        writeShop(w, (Shop) redisData.getData());
+        return w.toBytes();
+    }
+
+    @Override
+    public RedisData decode(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decode(bytes);
+        }
+        Reader r = new Reader(bytes);
+        RedisData redisData = new RedisData();
+        // 存的是店铺本身（旁路缓存）时没有逻辑过期时间
+        if (r.header() == TYPE_REDIS_DATA) {
+            redisData.setExpireTime(r.dateTime());
+            if (r.version >= VERSION_2) {
+                long rebuildMillis = r.varLong();
+                redisData.setRebuildMillis(rebuildMillis < 0 ? null : rebuildMillis);
+            }
+        }
+        redisData.setData(readShop(r));
+        return redisData;
+    }
+
+    @Override
+    public byte[] encodeShop(Shop shop) {
+        Writer w = new Writer(256);
+        w.header(TYPE_SHOP);
+        writeShop(w, shop);
+        return w.toBytes();
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    private static void writeShop(Writer w, Shop shop) {
+        if (shop == null) {
+            w.varLong(-1);
+            return;
+        }
+        int mask = 0;
+        if (shop.getId() != null) mask |= F_ID;
+        if (shop.getName() != null) mask |= F_NAME;
+        if (shop.getTypeId() != null) mask |= F_TYPE_ID;
+        if (shop.getImages() != null) mask |= F_IMAGES;
+        if (shop.getArea() != null) mask |= F_AREA;
+        if (shop.getAddress() != null) mask |= F_ADDRESS;
+        if (shop.getX() != null) mask |= F_X;
+        if (shop.getY() != null) mask |= F_Y;
+        if (shop.getAvgPrice() != null) mask |= F_AVG_PRICE;
+        if (shop.getSold() != null) mask |= F_SOLD;
+        if (shop.getComments() != null) mask |= F_COMMENTS;
+        if (shop.getScore() != null) mask |= F_SCORE;
+        if (shop.getOpenHours() != null) mask |= F_OPEN_HOURS;
+        if (shop.getCreateTime() != null) mask |= F_CREATE_TIME;
+        if (shop.getUpdateTime() != null) mask |= F_UPDATE_TIME;
+        w.varLong(mask);
+        if ((mask & F_ID) != 0) w.varLong(shop.getId());
+        if ((mask & F_NAME) != 0) w.string(shop.getName());
+        if ((mask & F_TYPE_ID) != 0) w.varLong(shop.getTypeId());
+        if ((mask & F_IMAGES) != 0) w.string(shop.getImages());
+        if ((mask & F_AREA) != 0) w.string(shop.getArea());
+        if ((mask & F_ADDRESS) != 0) w.string(shop.getAddress());
+        if ((mask & F_X) != 0) w.fixedLong(Double.doubleToRawLongBits(shop.getX()));
+        if ((mask & F_Y) != 0) w.fixedLong(Double.doubleToRawLongBits(shop.getY()));
+        if ((mask & F_AVG_PRICE) != 0) w.varLong(shop.getAvgPrice());
+        if ((mask & F_SOLD) != 0) w.varLong(shop.getSold());
+        if ((mask & F_COMMENTS) != 0) w.varLong(shop.getComments());
+        if ((mask & F_SCORE) != 0) w.varLong(shop.getScore());
+        if ((mask & F_OPEN_HOURS) != 0) w.string(shop.getOpenHours());
+        if ((mask & F_CREATE_TIME) != 0) w.dateTime(shop.getCreateTime());
+        if ((mask & F_UPDATE_TIME) != 0) w.dateTime(shop.getUpdateTime());
+    }
+
+    private static Shop readShop(Reader r) {
+        long mask = r.varLong();
+        if (mask < 0) {
+            return null;
+        }
+        Shop shop = new Shop();
+        if ((mask & F_ID) != 0) shop.setId(r.varLong());
+        if ((mask & F_NAME) != 0) shop.setName(r.string());
+        if ((mask & F_TYPE_ID) != 0) shop.setTypeId(r.varLong());
+        if ((mask & F_IMAGES) != 0) shop.setImages(r.string());
+        if ((mask & F_AREA) != 0) shop.setArea(r.string());
+        if ((mask & F_ADDRESS) != 0) shop.setAddress(r.string());
+        if ((mask & F_X) != 0) shop.setX(Double.longBitsToDouble(r.fixedLong()));
+        if ((mask & F_Y) != 0) shop.setY(Double.longBitsToDouble(r.fixedLong()));
+        if ((mask & F_AVG_PRICE) != 0) shop.setAvgPrice(r.varLong());
+        if ((mask & F_SOLD) != 0) shop.setSold((int) r.varLong());
+        if ((mask & F_COMMENTS) != 0) shop.setComments((int) r.varLong());
+        if ((mask & F_SCORE) != 0) shop.setScore((int) r.varLong());
+        if ((mask & F_OPEN_HOURS) != 0) shop.setOpenHours(r.string());
+        if ((mask & F_CREATE_TIME) != 0) shop.setCreateTime(r.dateTime());
+        if ((mask & F_UPDATE_TIME) != 0) shop.setUpdateTime(r.dateTime());
+        return shop;
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void header(byte type) {
+            ensure(3);
+            buf[pos++] = MAGIC;
+            buf[pos++] = VERSION_2;
+            buf[pos++] = type;
+        }
+
+        //zigzag + varint，小的正负数都只占1~2个字节
+        void varLong(long v) {
+            long z = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((z & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            buf[pos++] = (byte) z;
+        }
+
+        void fixedLong(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        void string(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void dateTime(LocalDateTime time) {
+            if (time == null) {
+                varLong(-1);
+                return;
+            }
+            varLong(time.getNano());
+            varLong(time.toEpochSecond(ZoneOffset.UTC));
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+        private byte version;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        //读取头部，返回数据类型
+        byte header() {
+            version = buf[1];
+            if (version != VERSION_1 && version != VERSION_2) {
+                throw new IllegalStateException("不支持的店铺缓存版本: " + version);
+            }
+            pos = 3;
+            return buf[2];
+        }
+
+        long varLong() {
+            long z = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                z |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (z >>> 1) ^ -(z & 1);
+        }
+
+        long fixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        String string() {
+            int len = (int) varLong();
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        LocalDateTime dateTime() {
+            long nano = varLong();
+            if (nano < 0) {
+                return null;
+            }
+            return LocalDateTime.ofEpochSecond(varLong(), (int) nano, ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建调度器
+ * 1、同一个key在本JVM里同时只会有一个重建任务（single-flight），重复提交直接合并
+ * 2、队列有界，满了丢弃最老的任务，被丢弃的key下次读到过期数据时会重新提交
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    @Value("${hmdp.cache.rebuild.threads:4}")
+    private int threads;
+
+    @Value("${hmdp.cache.rebuild.queue-capacity:1024}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    //正在排队或者执行中的key
+    private final Map<String, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger seq = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "cache-rebuild-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, e) -> {
+                    // 丢弃最老的任务，给新任务腾位置
+                    Runnable oldest = e.getQueue().poll();
+                    if (oldest instanceof RebuildTask) {
+                        ((RebuildTask) oldest).drop();
+                    }
+                    if (e.isShutdown() || !e.getQueue().offer(r)) {
+                        ((RebuildTask) r).drop();
+                    }
+                });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key  缓存key，同一个key的重复提交会被合并
+     * @param task 重建逻辑
+     * @return 是否真的排进了队列，被合并或者队列满了被丢弃都返回false
+     */
+    public boolean submit(String key, Runnable task) {
+        if (inFlight.putIfAbsent(key, Boolean.TRUE) != null) {
+            coalesced.increment();
+            return false;
+        }
+        RebuildTask rebuildTask = new RebuildTask(key, task);
+        // 拒绝策略在提交的线程里同步执行，execute返回时就知道有没有被丢弃
+        executor.execute(rebuildTask);
+        if (rebuildTask.dropped) {
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        long done = completed.sum() + failed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("inFlight", inFlight.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMillis", done == 0 ? 0 : totalNanos.sum() / done / 1_000_000.0);
+        stats.put("maxLatencyMillis", maxNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    private class RebuildTask implements Runnable {
+        private final String key;
+        private final Runnable task;
+        private volatile boolean dropped;
+
+        RebuildTask(String key, Runnable task) {
+            this.key = key;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            try {
+                task.run();
+                completed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存重建失败, key={}", key, e);
+            } finally {
+                inFlight.remove(key);
+                long cost = System.nanoTime() - begin;
+                totalNanos.add(cost);
+                maxNanos.accumulateAndGet(cost, Math::max);
+            }
+        }
+
+        void drop() {
+            dropped = true;
+            rejected.increment();
+            inFlight.remove(key);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch：用固定内存估算每个key出现的次数，只会高估不会低估
+ * 支持整体减半，用来做按时间窗口的衰减
+ */
+public class CountMinSketch {
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L, 0x94D049BB133111EBL
+    };
+
+    private final int depth;
+    private final int mask;
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param depth 哈希函数个数，最多8个
+     * @param width 每行的计数器个数，会向上取整到2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("depth必须在1~" + SEEDS.length + "之间: " + depth);
+        }
+        int w = Integer.highestOneBit(Math.max(16, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = w - 1;
+        this.counters = new AtomicIntegerArray(depth * w);
+    }
+
+    /**
+     * 计数加一
+     *
+     * @return 加完之后的估计值
+     */
+    public int add(long key) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int v = counters.incrementAndGet(index(i, key));
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    public int estimate(long key) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(index(i, key)));
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半，老的访问逐渐失去权重
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            int v;
+            do {
+                v = counters.get(i);
+            } while (v != 0 && !counters.compareAndSet(i, v, v >>> 1));
+        }
+    }
+
+    private int index(int row, long key) {
+        long h = (key ^ SEEDS[row]) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        return row * (mask + 1) + (int) (h & mask);
+    }
+}
@@ -0,0 +1,296 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * 不可变的网格空间索引：按经纬度把平面切成固定大小的格子，点按 (格子编号) 排序后存在几个并行的基本类型数组里
+ * 同一行里相邻的格子在数组里是连续的，一次范围查询每行只需要两次二分
+ * 修改时复制出一个新的网格（写少读多），读不需要加锁
+ */
+public class GeoGrid {
+
+    /**
+     * 和Redis GEO用的地球半径保持一致，算出来的距离可以直接对比
+     */
+    public static final double EARTH_RADIUS = 6372797.560856;
+
+    //每个点占用的字节：cells + ids + xs + ys
+    private static final int BYTES_PER_POINT = 8 * 4;
+    //构建时排序用，格子编号放高位，下标放低24位
+    private static final int INDEX_BITS = 24;
+
+    private final double cellDegrees;
+    private final long cols;
+    private final long[] cells;
+    private final long[] ids;
+    private final double[] xs;
+    private final double[] ys;
+
+    /**
+     * @param cellDegrees 格子边长（度），不能小于0.001，否则格子编号放不进排序用的高位
+     */
+    public GeoGrid(double cellDegrees) {
+        this(cellDegrees, new long[0], new long[0], new double[0], new double[0]);
+    }
+
+    private GeoGrid(double cellDegrees, long[] cells, long[] ids, double[] xs, double[] ys) {
+        if (cellDegrees < 0.001) {
+            throw new IllegalArgumentException("cellDegrees不能小于0.001: " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+        this.cols = (long) (360 / cellDegrees) + 1;
+        this.cells = cells;
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * 批量构建
+     *
+     * @param n 数组里前n个是有效数据
+     */
+    public static GeoGrid build(double cellDegrees, long[] ids, double[] xs, double[] ys, int n) {
+        if (n >= 1 << INDEX_BITS) {
+            throw new IllegalArgumentException("单个网格最多" + ((1 << INDEX_BITS) - 1) + "个点: " + n);
+        }
+        GeoGrid empty = new GeoGrid(cellDegrees);
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = empty.cell(xs[i], ys[i]) << INDEX_BITS | i;
+        }
+        Arrays.sort(order);
+        long[] c = new long[n];
+        long[] id = new long[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            int j = (int) (order[i] & ((1 << INDEX_BITS) - 1));
+            c[i] = order[i] >>> INDEX_BITS;
+            id[i] = ids[j];
+            x[i] = xs[j];
+            y[i] = ys[j];
+        }
+        return new GeoGrid(cellDegrees, c, id, x, y);
+    }
+
+    /**
+     * 新增一个点，调用方保证id不在网格里
+     *
+     * @return 新的网格
+     */
+    public GeoGrid plus(long id, double x, double y) {
+        long cell = cell(x, y);
+        int pos = upperBound(cells, cell);
+        int n = size();
+        long[] c = new long[n + 1];
+        long[] i = new long[n + 1];
+        double[] xa = new double[n + 1];
+        double[] ya = new double[n + 1];
+        insert(cells, c, pos, cell);
+        insert(ids, i, pos, id);
+        insert(xs, xa, pos, x);
+        insert(ys, ya, pos, y);
+        return new GeoGrid(cellDegrees, c, i, xa, ya);
+    }
+
+    /**
+     * 删除一个已知坐标的点，只在它所在的格子里找，不用扫描整个数组
+     *
+     * @return 新的网格，点不在这个坐标上时返回自己
+     */
+    public GeoGrid without(long id, double x, double y) {
+        long cell = cell(x, y);
+        for (int i = lowerBound(cells, cell), to = upperBound(cells, cell); i < to; i++) {
+            if (ids[i] == id) {
+                return without(i);
+            }
+        }
+        return this;
+    }
+
+    private GeoGrid without(int pos) {
+        return new GeoGrid(cellDegrees, remove(cells, pos), remove(ids, pos), remove(xs, pos), remove(ys, pos));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * 几个并行数组占用的字节数，不含对象头
+     */
+    public long arrayBytes() {
+        return (long) BYTES_PER_POINT * ids.length;
+    }
+
+    /**
+     * 半径查询，按 (距离, id) 升序
+     *
+     * @param after 游标，只返回排在它后面的点，为null时从头开始
+     * @param limit 最多返回多少个
+     */
+    public List<Hit> within(double x, double y, double radius, int limit, Hit after) {
+        return within(x, y, radius, limit, after, null);
+    }
+
+    /**
+     * 半径查询，只返回满足条件的点
+     *
+     * @param accept 按id过滤，为null时不过滤；在算距离之后调用，只对半径内的点判断
+     */
+    public List<Hit> within(double x, double y, double radius, int limit, Hit after, LongPredicate accept) {
+        if (ids.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 1、半径换算成经纬度范围，经度方向的跨度随纬度变大
+        double dLat = Math.toDegrees(radius / EARTH_RADIUS);
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(y) + dLat)));
+        double dLon = cos < 1e-9 ? 180 : Math.min(180, dLat / cos);
+        long cxMin = cellX(x - dLon), cxMax = cellX(x + dLon);
+        long cyMin = cellY(y - dLat), cyMax = cellY(y + dLat);
+        // 2、每一行的格子在数组里是连续的一段，二分找到后逐个算距离
+        List<Hit> hits = new ArrayList<>();
+        for (long cy = cyMin; cy <= cyMax; cy++) {
+            int from = lowerBound(cells, cy * cols + cxMin);
+            int to = upperBound(cells, cy * cols + cxMax);
+            for (int i = from; i < to; i++) {
+                double d = distance(x, y, xs[i], ys[i]);
+                if (d <= radius && (accept == null || accept.test(ids[i]))) {
+                    Hit hit = new Hit(ids[i], d);
+                    if (after == null || hit.compareTo(after) > 0) {
+                        hits.add(hit);
+                    }
+                }
+            }
+        }
+        // 3、排序后截取
+        Collections.sort(hits);
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * 最近的k个点：从一个格子大小的半径开始，找不够就把半径翻倍，直到maxRadius
+     *
+     * @param after 游标，只返回排在它后面的点，为null时从头开始
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxRadius, Hit after) {
+        return nearest(x, y, k, maxRadius, after, null);
+    }
+
+    /**
+     * 最近的k个满足条件的点，过滤掉的点不占名额
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxRadius, Hit after, LongPredicate accept) {
+        double radius = Math.toRadians(cellDegrees) * EARTH_RADIUS;
+        if (after != null) {
+            radius = Math.max(radius, after.distance * 2);
+        }
+        while (true) {
+            radius = Math.min(radius, maxRadius);
+            List<Hit> hits = within(x, y, radius, k, after, accept);
+            // 半径内的点都找全了，够k个就说明前k个一定在里面
+            if (hits.size() >= k || radius >= maxRadius) {
+                return hits;
+            }
+            radius *= 2;
+        }
+    }
+
+    /**
+     * 球面距离（米），公式和Redis GEODIST一样
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1), lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private long cell(double x, double y) {
+        return cellY(y) * cols + cellX(x);
+    }
+
+    private long cellX(double x) {
+        return Math.max(0, Math.min(cols - 1, (long) Math.floor((x + 180) / cellDegrees)));
+    }
+
+    private long cellY(double y) {
+        return Math.max(0, (long) Math.floor((Math.min(90, y) + 90) / cellDegrees));
+    }
+
+    private static int lowerBound(long[] a, long key) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int upperBound(long[] a, long key) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] <= key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static void insert(long[] src, long[] dest, int pos, long value) {
+        System.arraycopy(src, 0, dest, 0, pos);
+        dest[pos] = value;
+        System.arraycopy(src, pos, dest, pos + 1, src.length - pos);
+    }
+
+    private static void insert(double[] src, double[] dest, int pos, double value) {
+        System.arraycopy(src, 0, dest, 0, pos);
+        dest[pos] = value;
+        System.arraycopy(src, pos, dest, pos + 1, src.length - pos);
+    }
+
+    private static long[] remove(long[] src, int pos) {
+        long[] dest = new long[src.length - 1];
+        System.arraycopy(src, 0, dest, 0, pos);
+        System.arraycopy(src, pos + 1, dest, pos, src.length - pos - 1);
+        return dest;
+    }
+
+    private static double[] remove(double[] src, int pos) {
+        double[] dest = new double[src.length - 1];
+        System.arraycopy(src, 0, dest, 0, pos);
+        System.arraycopy(src, pos + 1, dest, pos, src.length - pos - 1);
+        return dest;
+    }
+
+    /**
+     * 查询结果，也用作分页游标
+     */
+    public static class Hit implements Comparable<Hit> {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        @Override
+        public int compareTo(Hit o) {
+            int c = Double.compare(distance, o.distance);
+            return c != 0 ? c : Long.compare(id, o.id);
+        }
+    }
+}
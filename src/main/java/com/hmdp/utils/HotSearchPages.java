@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.HotKeyword;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热搜词的结果页预计算：定时取出全局最热的搜索词，在名称索引上算好前几页的店铺id，
+ * 热词的搜索不用再求交集、排序。每次整体替换，最多落后一个刷新间隔
+ */
+@Slf4j
+@Component
+public class HotSearchPages {
+
+    /**
+     * 预计算多少个热词
+     */
+    @Value("${hmdp.shop.search.hot.warm-size:20}")
+    private int warmSize;
+
+    /**
+     * 每个热词预计算几页
+     */
+    @Value("${hmdp.shop.search.hot.warm-pages:2}")
+    private int warmPages;
+
+    @Resource
+    private SearchKeywordTracker searchKeywordTracker;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    //热词:页码 -> 这一页的店铺id
+    private volatile Map<String, List<Long>> pages = Collections.emptyMap();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long lastRefreshMillis;
+    private volatile LocalDateTime lastRefreshTime;
+
+    @Scheduled(initialDelayString = "${hmdp.shop.search.hot.warm-ms:60000}",
+            fixedDelayString = "${hmdp.shop.search.hot.warm-ms:60000}")
+    public void refresh() {
+        if (!shopNameIndex.isReady()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Map<String, List<Long>> newPages = new HashMap<>();
+            for (HotKeyword hot : searchKeywordTracker.hot(warmSize)) {
+                for (int current = 1; current <= warmPages; current++) {
+                    int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+                    List<Long> ids = shopNameIndex.search(hot.getKeyword(), from, SystemConstants.MAX_PAGE_SIZE);
+                    newPages.put(key(hot.getKeyword(), current), ids);
+                    // 不满一页说明后面没有了
+                    if (ids.size() < SystemConstants.MAX_PAGE_SIZE) {
+                        break;
+                    }
+                }
+            }
+            pages = newPages;
+            lastRefreshMillis = System.currentTimeMillis() - begin;
+            lastRefreshTime = LocalDateTime.now();
+        } catch (Exception e) {
+            log.warn("热搜结果页预计算失败", e);
+        }
+    }
+
+    /**
+     * 预计算好的结果页
+     *
+     * @return 这个词或者这一页没有预计算时返回null
+     */
+    public List<Long> get(String keyword, int current) {
+        List<Long> ids = pages.get(key(SearchKeywordTracker.normalize(keyword), current));
+        if (ids == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return ids;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pages", pages.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("lastRefreshMillis", lastRefreshMillis);
+        stats.put("lastRefreshTime", lastRefreshTime);
+        return stats;
+    }
+
+    private static String key(String keyword, int current) {
+        return keyword + ":" + current;
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 热点店铺探测：对查询做抽样计数，估计值超过阈值的店铺提升为本地副本，定时从数据库刷新
+ * 每个时间窗口计数减半，热度降下来的店铺会被降级
+ */
+@Slf4j
+@Component
+public class HotShopDetector implements ShopChangeListener {
+
+    /**
+     * 抽样比例，每N次查询记一次数
+     */
+    @Value("${hmdp.shop.hot.sample-rate:8}")
+    private int sampleRate;
+
+    /**
+     * 抽样计数达到这个值就认为是热点
+     */
+    @Value("${hmdp.shop.hot.threshold:64}")
+    private int threshold;
+
+    @Value("${hmdp.shop.hot.max-size:200}")
+    private int maxSize;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private CountMinSketch sketch;
+
+    private final Map<Long, HotEntry> hotShops = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        sketch = new CountMinSketch(4, 4096);
+    }
+
+    /**
+     * 记录一次查询，必要时提升为热点
+     */
+    public void record(Long id) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        int estimate = sketch.add(id);
+        if (estimate >= threshold && !hotShops.containsKey(id) && hotShops.size() < maxSize) {
+            // 先占位，店铺数据等下次刷新再加载，不阻塞当前请求
+            if (hotShops.putIfAbsent(id, new HotEntry()) == null) {
+                log.info("店铺{}成为热点, 抽样计数={}", id, estimate);
+            }
+        }
+    }
+
+    /**
+     * 查询热点副本
+     *
+     * @return 不是热点或者还没加载好时返回null
+     */
+    public Shop get(Long id) {
+        HotEntry entry = hotShops.get(id);
+        return entry == null ? null : entry.shop;
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        // 先作废，等下次刷新重新加载
+        HotEntry entry = hotShops.get(shopId);
+        if (entry != null) {
+            entry.shop = null;
+        }
+    }
+
+    /**
+     * 定时刷新热点副本，一次查询加载所有热点店铺
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.hot.refresh-ms:1000}")
+    public void refresh() {
+        if (hotShops.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(hotShops.keySet());
+        LocalDateTime now = LocalDateTime.now();
+        Set<Long> missing = new HashSet<>(ids);
+        for (Shop shop : shopMapper.selectBatchIds(ids)) {
+            missing.remove(shop.getId());
+            HotEntry entry = hotShops.get(shop.getId());
+            if (entry != null) {
+                entry.shop = shop;
+                entry.refreshTime = now;
+            }
+        }
+        // 没查到的店铺已经被删了，去掉副本，不能再返回
+        for (Long id : missing) {
+            hotShops.remove(id);
+            log.info("店铺{}已不存在, 取消热点", id);
+        }
+    }
+
+    /**
+     * 时间窗口结束：计数衰减，热度不够的降级
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.hot.window-ms:10000}")
+    public void decay() {
+        sketch.halve();
+        hotShops.keySet().removeIf(id -> {
+            boolean cold = sketch.estimate(id) < threshold / 2;
+            if (cold) {
+                log.info("店铺{}热度下降, 取消热点", id);
+            }
+            return cold;
+        });
+    }
+
+    public List<Map<String, Object>> hotShops() {
+        List<Map<String, Object>> result = new ArrayList<>(hotShops.size());
+        hotShops.forEach((id, entry) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("shopId", id);
+            item.put("estimate", sketch.estimate(id));
+            item.put("promoteTime", entry.promoteTime);
+            item.put("refreshTime", entry.refreshTime);
+            item.put("loaded", entry.shop != null);
+            result.add(item);
+        });
+        result.sort((a, b) -> Integer.compare((Integer) b.get("estimate"), (Integer) a.get("estimate")));
+        return result;
+    }
+
+    private static class HotEntry {
+        private volatile Shop shop;
+        private final LocalDateTime promoteTime = LocalDateTime.now();
+        private volatile LocalDateTime refreshTime;
+    }
+}
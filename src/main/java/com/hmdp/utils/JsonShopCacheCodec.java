@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+//JSON格式，和之前直接用JSONUtil写进Redis的数据完全兼容
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json")
+public class JsonShopCacheCodec implements ShopCacheCodec {
+
+    @Override
+    public byte[] encode(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public RedisData decode(byte[] bytes) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        JSONObject data = (JSONObject) redisData.getData();
+        // 没有data字段说明存的是店铺本身（旁路缓存），没有逻辑过期时间
+        redisData.setData(data == null ? JSONUtil.toBean(json, Shop.class) : JSONUtil.toBean(data, Shop.class));
+        return redisData;
+    }
+
+    @Override
+    public byte[] encodeShop(Shop shop) {
+        return JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.time.LocalTime;
+
+/**
+ * 营业时间解析，格式如 10:00-22:00，多个时段用逗号或分号隔开，结束早于开始表示营业到第二天
+ * 可以提前转成一天96个刻钟的位图（两个long），之后判断是否营业只需要一次位运算
+ */
+public class OpenHours {
+
+    /**
+     * 一刻钟一个槽位
+     */
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS = 24 * 60 / SLOT_MINUTES;
+
+    /**
+     * 解析成位图，第i位表示 [15i, 15i+15) 分钟这个刻钟的开始时刻是否营业
+     * @param openHours 营业时间
+     * @return 两个long，[0]是前64个槽位，[1]是后32个；格式不对的时段会被忽略
+     */
+    public static long[] toBits(String openHours) {
+        long[] bits = new long[2];
+        if (StrUtil.isBlank(openHours)) {
+            return bits;
+        }
+        for (String segment : openHours.split("[,，;；]")) {
+            int[] range = parseSegment(segment);
+            if (range == null) {
+                continue;
+            }
+            int start = range[0], end = range[1];
+            // 结束早于开始说明跨天，拆成两段
+            if (start > end) {
+                setRange(bits, start, 24 * 60);
+                setRange(bits, 0, end);
+            } else {
+                setRange(bits, start, end);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 用位图判断某个时刻是否营业
+     */
+    public static boolean isOpen(long bits0, long bits1, LocalTime time) {
+        int slot = slotOf(time);
+        return slot < 64 ? (bits0 >>> slot & 1) != 0 : (bits1 >>> (slot - 64) & 1) != 0;
+    }
+
+    public static int slotOf(LocalTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+
+    //把开始时刻落在 [start, end) 里的刻钟都标记为营业
+    private static void setRange(long[] bits, int start, int end) {
+        int from = (start + SLOT_MINUTES - 1) / SLOT_MINUTES;
+        int to = Math.min(SLOTS, (end + SLOT_MINUTES - 1) / SLOT_MINUTES);
+        for (int slot = from; slot < to; slot++) {
+            bits[slot >> 6] |= 1L << (slot & 63);
+        }
+    }
+
+    /**
+     * 解析一个时段
+     * @return [开始分钟, 结束分钟]，格式不对返回null
+     */
+    static int[] parseSegment(String segment) {
+        String[] parts = segment.trim().split("\\s*[-~—至]\\s*");
+        if (parts.length != 2) {
+            return null;
+        }
+        int start = parseMinute(parts[0]);
+        int end = parseMinute(parts[1]);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        // 00:00-24:00、10:00-10:00 这类全天营业的写法，统一成整天
+        if (end == start || end - start == 24 * 60) {
+            return new int[]{0, 24 * 60};
+        }
+        return new int[]{start, end};
+    }
+
+    private static int parseMinute(String s) {
+        String[] hm = s.trim().split("[:：]");
+        if (hm.length != 2) {
+            return -1;
+        }
+        try {
+            int h = Integer.parseInt(hm[0].trim());
+            int m = Integer.parseInt(hm[1].trim());
+            if (h < 0 || h > 24 || m < 0 || m > 59 || h == 24 && m > 0) {
+                return -1;
+            }
+            return h * 60 + m;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
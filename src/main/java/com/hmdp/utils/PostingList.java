@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 压缩的倒排列表：升序的id做差分，再用变长整数编码，小的差值只占1个字节
+ * 格式：[个数][第一个id][第二个id-第一个id]...
+ * 编码后的数组不可变，增删都会返回一个新数组
+ */
+public class PostingList {
+
+    public static final byte[] EMPTY = encode(new long[0], 0);
+
+    /**
+     * @param ids 升序且不重复的id
+     * @param n   前n个有效
+     */
+    public static byte[] encode(long[] ids, int n) {
+        byte[] buf = new byte[5 + n * 10];
+        int pos = writeVarLong(buf, 0, n);
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            pos = writeVarLong(buf, pos, ids[i] - prev);
+            prev = ids[i];
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public static long[] decode(byte[] bytes) {
+        int[] pos = {0};
+        int n = (int) readVarLong(bytes, pos);
+        long[] ids = new long[n];
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += readVarLong(bytes, pos);
+            ids[i] = prev;
+        }
+        return ids;
+    }
+
+    public static int size(byte[] bytes) {
+        return (int) readVarLong(bytes, new int[]{0});
+    }
+
+    public static byte[] add(byte[] bytes, long id) {
+        long[] ids = decode(bytes);
+        int i = Arrays.binarySearch(ids, id);
+        if (i >= 0) {
+            return bytes;
+        }
+        int pos = -i - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, pos);
+        result[pos] = id;
+        System.arraycopy(ids, pos, result, pos + 1, ids.length - pos);
+        return encode(result, result.length);
+    }
+
+    public static byte[] remove(byte[] bytes, long id) {
+        long[] ids = decode(bytes);
+        int pos = Arrays.binarySearch(ids, id);
+        if (pos < 0) {
+            return bytes;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, pos);
+        System.arraycopy(ids, pos + 1, result, pos, ids.length - pos - 1);
+        return encode(result, result.length);
+    }
+
+    /**
+     * 两个升序数组求交集
+     */
+    public static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int writeVarLong(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarLong(byte[] buf, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
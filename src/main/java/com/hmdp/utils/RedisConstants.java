@@ -10,15 +10,32 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOGICAL_TTL = 1800L;
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop:hash:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop_type:";
+    public static final String SHOP_TYPE_VERSION_KEY = "cache:shop_type:version";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String SHOP_CHANGE_TOPIC = "topic:shop:change";
     public static  final Long CACHE_SHOP_TYPE_TTL=3600L;
     public static final String LOCK_ORDER_KEY = "order:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream:seckill:orders";
+    public static final String SECKILL_ORDER_DEAD_STREAM = "stream:seckill:orders:dead";
+    public static final String SECKILL_SOLD_OUT_TOPIC = "topic:seckill:sold-out";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_REBALANCE_SEQ_KEY = "seckill:rebalance:seq:";
+    public static final String SECKILL_PENDING_KEY = "seckill:pending:";
+    public static final String SECKILL_SHARDED_VOUCHERS_KEY = "seckill:sharded-vouchers";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "lock:seckill:reconcile";
+    public static final String LOCK_SECKILL_REBALANCE_KEY = "lock:seckill:rebalance:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SEARCH_HOT_KEY = "search:hot";
+    public static final String SEARCH_HOT_DECAY_KEY = "search:hot:decay-time";
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -8,4 +8,5 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data; //这里用的是【组合】的方法，组合优于继承
+    private Long rebuildMillis; //重建一次花的时间，用来做概率性提前刷新
 }
@@ -23,19 +23,31 @@ public class RedisIdWorker {
     public  long nextId(String keyPrefix){
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timeStap = nowSecond - BEGIN_TIMESTAM;
+        long timeStap = timestamp(now);
 
         //2.生成序列号
-        // 2.1 获取当前日期，精确到天【当时面试就碰到了这个地方不会调！！！】
-        String date =  now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2 自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+ date);
+        //2.1 自增长（key里带上当前日期，精确到天）
+        long count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now));
 
         //3、拼接并返回
         return (timeStap << 32) | count;
     }
 
+    /**
+     * id的时间戳部分，Lua脚本里自己生成id时用
+     */
+    public long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAM;
+    }
+
+    /**
+     * id的序列号计数器的key，获取当前日期，精确到天【当时面试就碰到了这个地方不会调！！！】
+     */
+    public String counterKey(String keyPrefix, LocalDateTime now) {
+        String date =  now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return "icr:"+keyPrefix+":"+ date;
+    }
+
     public static void main(String[] args) {
 
 
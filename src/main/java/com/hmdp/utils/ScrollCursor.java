@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 滚动分页的游标：把上一页最后一条记录的排序键和id编码成一个不透明的字符串
+ * 下一页用 WHERE 排序键 < 上一页的值 直接在索引上定位，不需要OFFSET，也不需要COUNT
+ */
+public class ScrollCursor {
+
+    private static final char SEPARATOR = ':';
+
+    /**
+     * 编码游标
+     * @param keys 排序键，最后一个一般是id
+     * @return 游标
+     */
+    public static String encode(long... keys) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(keys[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     * @param cursor 游标
+     * @param size 排序键的个数
+     * @return 排序键，游标为空时返回null
+     * @throws IllegalArgumentException 游标格式不对
+     */
+    public static long[] decode(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(String.valueOf(SEPARATOR));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("游标格式错误: " + cursor);
+        }
+        if (parts.length != size) {
+            throw new IllegalArgumentException("游标格式错误: " + cursor);
+        }
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            // 不是数字时抛出的NumberFormatException也是IllegalArgumentException
+            keys[i] = Long.parseLong(parts[i]);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.HotKeyword;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.SEARCH_HOT_DECAY_KEY;
+import static com.hmdp.utils.RedisConstants.SEARCH_HOT_KEY;
+
+/**
+ * 店铺搜索热词：每个节点用 Space-Saving 在固定内存里统计搜索词，定时合并到Redis的ZSET，
+ * 合并时按经过的时间做指数衰减，ZSET里的分数就是最近一段时间的搜索热度
+ */
+@Slf4j
+@Component
+public class SearchKeywordTracker {
+
+    private static final DefaultRedisScript<Long> MERGE_SCRIPT;
+    static {
+        MERGE_SCRIPT = new DefaultRedisScript<>();
+        MERGE_SCRIPT.setLocation(new ClassPathResource("hot_keywords.lua"));
+        MERGE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 每个节点最多统计多少个不同的搜索词
+     */
+    @Value("${hmdp.shop.search.hot.capacity:1000}")
+    private int capacity;
+
+    /**
+     * 超过这个长度的搜索词不统计
+     */
+    @Value("${hmdp.shop.search.hot.max-length:32}")
+    private int maxLength;
+
+    /**
+     * 热度的半衰期
+     */
+    @Value("${hmdp.shop.search.hot.half-life-ms:3600000}")
+    private long halfLifeMillis;
+
+    /**
+     * Redis里最多保留多少个热词
+     */
+    @Value("${hmdp.shop.search.hot.max-size:1000}")
+    private int maxSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SpaceSaving sketch;
+
+    private volatile long lastFlushTerms;
+    private volatile long lastFlushSearches;
+    private volatile LocalDateTime lastFlushTime;
+
+    @PostConstruct
+    public void init() {
+        sketch = new SpaceSaving(capacity);
+    }
+
+    /**
+     * 记录一次搜索
+     */
+    public void record(String keyword) {
+        String term = normalize(keyword);
+        if (!term.isEmpty() && term.length() <= maxLength) {
+            sketch.offer(term);
+        }
+    }
+
+    /**
+     * 把本节点这段时间的计数合并到Redis，合并失败的计数直接丢弃，热词统计不需要精确
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.search.hot.flush-ms:60000}",
+            fixedDelayString = "${hmdp.shop.search.hot.flush-ms:60000}")
+    public void flush() {
+        long searches = sketch.total();
+        List<SpaceSaving.Counter> counters = sketch.drain();
+        if (counters.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>(3 + counters.size() * 2);
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.add(String.valueOf(halfLifeMillis));
+        args.add(String.valueOf(maxSize));
+        // 只上报一定出现过的次数，被频繁顶替的长尾词误差很大，按估计值上报会把它们也顶上热搜
+        for (SpaceSaving.Counter counter : counters) {
+            long guaranteed = counter.getCount() - counter.getError();
+            if (guaranteed > 0) {
+                args.add(counter.getKey());
+                args.add(String.valueOf(guaranteed));
+            }
+        }
+        try {
+            stringRedisTemplate.execute(MERGE_SCRIPT, Arrays.asList(SEARCH_HOT_KEY, SEARCH_HOT_DECAY_KEY), args.toArray());
+            lastFlushTerms = (args.size() - 3) / 2;
+            lastFlushSearches = searches;
+            lastFlushTime = LocalDateTime.now();
+        } catch (Exception e) {
+            log.warn("合并搜索热词失败, 词数={}", counters.size(), e);
+        }
+    }
+
+    /**
+     * 全局热度最高的n个搜索词
+     */
+    public List<HotKeyword> hot(int n) {
+        Set<ZSetOperations.TypedTuple<String>> tuples =
+                stringRedisTemplate.opsForZSet().reverseRangeWithScores(SEARCH_HOT_KEY, 0, n - 1L);
+        if (tuples == null || tuples.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<HotKeyword> hot = new ArrayList<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            hot.add(new HotKeyword(tuple.getValue(), tuple.getScore()));
+        }
+        return hot;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", sketch.capacity());
+        stats.put("terms", sketch.size());
+        stats.put("searches", sketch.total());
+        stats.put("localTop", sketch.top(10).stream()
+                .map(c -> c.getKey() + "=" + c.getCount() + "±" + c.getError()).toArray());
+        stats.put("lastFlushTerms", lastFlushTerms);
+        stats.put("lastFlushSearches", lastFlushSearches);
+        stats.put("lastFlushTime", lastFlushTime);
+        return stats;
+    }
+
+    /**
+     * 和名称索引的查询一样只去掉首尾空白、转小写，统计出来的词可以直接拿去查
+     */
+    public static String normalize(String keyword) {
+        return StrUtil.isBlank(keyword) ? "" : keyword.trim().toLowerCase(Locale.ROOT);
+    }
+}
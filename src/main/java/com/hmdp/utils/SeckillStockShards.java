@@ -0,0 +1,582 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_REBALANCE_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_REBALANCE_SEQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDED_VOUCHERS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 超热秒杀券的分片库存：库存拆到K个key上，已下单用户也按用户id拆到K个集合里，
+ * 每个分片的key带同一个哈希标签，Redis Cluster下各分片落在不同的槽，扣库存的压力分散到多个节点
+ * <p>
+ * 用户先在自己的主分片（用户id哈希）上判断一人一单并占位，主分片没有库存再依次去其他分片扣，
+ * 全部分片都扣不到才撤销占位、算售罄。每次扣库存都是单个分片上的原子操作，库存总数是精确的，不会超卖。
+ * 有分片扣空了就在后台把剩下的库存重新平均分到各分片，减少跨分片的重试
+ * <p>
+ * 订单Stream在另一个槽，扣库存和XADD做不到原子，所以扣库存时在同一个分片上记下待完成的订单，
+ * XADD以后再删。进程在中间挂了，对账任务把超时的记录补发到Stream（消费者按用户和券去重），没扣到库存的撤销占位
+ */
+@Slf4j
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 秒杀成功
+     */
+    public static final int OK = 0;
+    /**
+     * 所有分片都没有库存
+     */
+    public static final int SOLD_OUT = 1;
+    /**
+     * 用户已下单
+     */
+    public static final int DUPLICATE = 2;
+    /**
+     * 各分片都没扣到，但不能确认售罄（库存正在分片之间搬，或者刚补了库存），让用户重试
+     */
+    public static final int RETRY = 3;
+
+    private static final long NEED_FALLOVER = 3;
+
+    private static final DefaultRedisScript<Long> SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        SHARD_SCRIPT = new DefaultRedisScript<>();
+        SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SHARD_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    //待完成订单的状态：主分片上扣到了、主分片上占了位去其他分片扣、其他分片替用户扣到了
+    private static final String HOME = "home";
+    private static final String FALLOVER = "fallover";
+    private static final String TAKEN = "taken";
+
+    //分片之间搬库存的线程，同一张券同时只排一个任务
+    private static final ExecutorService REBALANCE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 新建秒杀券时拆成几个分片，1表示不拆，和原来一样用一个库存key
+     */
+    @Value("${hmdp.seckill.shard.count:1}")
+    private int shardCount;
+
+    /**
+     * 库存不少于这么多的券才拆分片，库存少的券拆了也只是多跑几个分片
+     */
+    @Value("${hmdp.seckill.shard.min-stock:1000}")
+    private int minStock;
+
+    /**
+     * 不分片的券在本节点记住多久，期间不用每个请求都去Redis查分片数
+     */
+    @Value("${hmdp.seckill.shard.lookup-ttl-ms:5000}")
+    private long lookupTtlMillis;
+
+    /**
+     * 同一张券两次重新分配库存至少间隔多久
+     */
+    @Value("${hmdp.seckill.shard.rebalance-interval-ms:1000}")
+    private long rebalanceIntervalMillis;
+
+    /**
+     * 待完成的订单超过这么久还在，认为处理它的请求已经不在了，由对账任务接手
+     */
+    @Value("${hmdp.seckill.shard.pending-grace-ms:60000}")
+    private long pendingGraceMillis;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    //券id -> 分片数，券创建以后分片数就不会变，可以一直缓存
+    private final Map<Long, Integer> sharded = new ConcurrentHashMap<>();
+    //不分片的券 -> 缓存过期的时间
+    private final Map<Long, Long> unsharded = new ConcurrentHashMap<>();
+    //券id -> 上次重新分配的时间
+    private final Map<Long, Long> lastRebalance = new ConcurrentHashMap<>();
+    private final Set<Long> rebalancing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder fallovers = new LongAdder();
+    private final LongAdder soldOut = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rebalances = new LongAdder();
+    private final LongAdder moved = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder redriven = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+
+    /**
+     * 新建的秒杀券要不要拆分片
+     */
+    public boolean shouldShard(int stock) {
+        return shardCount > 1 && stock >= minStock;
+    }
+
+    /**
+     * 把库存平均拆到各分片，除不尽的零头给前面的分片。要在秒杀开始前调用
+     */
+    public void init(Long voucherId, int stock) {
+        int k = shardCount;
+        for (int i = 0; i < k; i++) {
+            long part = stock / k + (i < stock % k ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(part));
+        }
+        // 分片数最后写，其他节点看到分片数时各分片的库存已经就位
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(k));
+        // 对账任务从这里找分片的券
+        stringRedisTemplate.opsForSet().add(SECKILL_SHARDED_VOUCHERS_KEY, voucherId.toString());
+        sharded.put(voucherId, k);
+        unsharded.remove(voucherId);
+    }
+
+    /**
+     * 这张券的分片数，不分片返回1
+     */
+    public int shardCount(Long voucherId) {
+        Integer k = sharded.get(voucherId);
+        if (k != null) {
+            return k;
+        }
+        Long expireAt = unsharded.get(voucherId);
+        if (expireAt != null && expireAt >= System.currentTimeMillis()) {
+            return 1;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (StrUtil.isNotBlank(value) && Integer.parseInt(value) > 1) {
+            k = Integer.valueOf(value);
+            sharded.put(voucherId, k);
+            unsharded.remove(voucherId);
+            return k;
+        }
+        unsharded.put(voucherId, System.currentTimeMillis() + lookupTtlMillis);
+        return 1;
+    }
+
+    /**
+     * 扣一个库存并登记用户已下单
+     * @return 成功时返回扣到的分片号（>=0），-SOLD_OUT 表示确认售罄，-RETRY 表示没扣到但还有库存，-DUPLICATE 表示用户已下单
+     */
+    public int acquire(Long voucherId, Long userId, int k) {
+        int home = homeShard(userId, k);
+        String now = String.valueOf(System.currentTimeMillis());
+        // 1、主分片上判断一人一单、占位、扣库存，记下待完成的订单
+        Long result = stringRedisTemplate.execute(
+                SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), pendingKey(voucherId, home)),
+                userId.toString(), now);
+        if (result == null) {
+            throw new IllegalStateException("分片秒杀脚本没有返回结果");
+        }
+        if (result == OK) {
+            acquired.increment();
+            return home;
+        }
+        if (result == DUPLICATE) {
+            return -DUPLICATE;
+        }
+        if (result != NEED_FALLOVER) {
+            throw new IllegalStateException("分片秒杀脚本返回了未知结果: " + result);
+        }
+        // 2、主分片扣空了，从下一个分片开始依次去扣，用户已经在主分片上占了位
+        fallovers.increment();
+        for (int i = 1; i < k; i++) {
+            int shard = (home + i) % k;
+            if (take(voucherId, shard, 1, userId, now) == 1) {
+                acquired.increment();
+                scheduleRebalance(voucherId, k);
+                return shard;
+            }
+        }
+        // 3、所有分片都没扣到，撤销占位和待完成记录，用户之后补了库存还能再抢
+        release(voucherId, home, userId, 0, true);
+        // 4、依次扣各分片不是原子的，库存可能正在分片之间搬，确认总数是0才算售罄，售罄标记会拦住所有节点
+        if (!confirmSoldOut(voucherId, k)) {
+            retries.increment();
+            return -RETRY;
+        }
+        soldOut.increment();
+        return -SOLD_OUT;
+    }
+
+    /**
+     * 各分片库存加起来是0，而且读的过程中没有重新分配在进行。
+     * 重新分配开始和结束时各把序号加1，序号是奇数表示正在搬，读前读后序号不一样表示读的时候搬过
+     */
+    private boolean confirmSoldOut(Long voucherId, int k) {
+        String seqKey = SECKILL_REBALANCE_SEQ_KEY + voucherId;
+        String before = stringRedisTemplate.opsForValue().get(seqKey);
+        if (isOdd(before)) {
+            return false;
+        }
+        long total = 0;
+        for (long stock : stocks(voucherId, k)) {
+            total += stock;
+        }
+        String after = stringRedisTemplate.opsForValue().get(seqKey);
+        return total <= 0 && Objects.equals(before, after);
+    }
+
+    private static boolean isOdd(String seq) {
+        return seq != null && Long.parseLong(seq) % 2 != 0;
+    }
+
+    /**
+     * 扣到库存以后把订单写进Stream，再删掉待完成记录。字段和不分片的Lua脚本写的一样，消费者不用区分。
+     * XADD失败时不退库存：请求可能已经写进去了只是没收到回复，退了会超卖，留给对账任务补发
+     */
+    public void complete(Long voucherId, Long userId, int k, int shard, long orderId) {
+        Map<String, String> value = new HashMap<>();
+        value.put("userId", userId.toString());
+        value.put("voucherId", voucherId.toString());
+        value.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, value);
+        // 先删主分片的记录，中间挂了剩下的替扣标记没有主记录，对账时直接删
+        int home = homeShard(userId, k);
+        stringRedisTemplate.opsForHash().delete(pendingKey(voucherId, home), userId.toString());
+        if (shard != home) {
+            stringRedisTemplate.opsForHash().delete(pendingKey(voucherId, shard), userId.toString());
+        }
+    }
+
+    /**
+     * 对账：找出超过宽限期还没完成的订单。库存已经扣了的补发到Stream，只占了位没扣到库存的撤销占位。
+     * 补发可能和原来的请求重复，消费者写库前按用户和券去重，还有唯一索引兜底
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.shard.reconcile-ms:30000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Set<String> vouchers = stringRedisTemplate.opsForSet().members(SECKILL_SHARDED_VOUCHERS_KEY);
+            if (vouchers == null) {
+                return;
+            }
+            for (String voucher : vouchers) {
+                Long voucherId = Long.valueOf(voucher);
+                int k = shardCount(voucherId);
+                if (k > 1) {
+                    reconcile(voucherId, k);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("秒杀分片库存对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reconcile(Long voucherId, int k) {
+        long deadline = System.currentTimeMillis() - pendingGraceMillis;
+        for (int i = 0; i < k; i++) {
+            // 待完成的订单正常只在一次请求的时间里存在，数量很少
+            Map<Object, Object> pending = stringRedisTemplate.opsForHash().entries(pendingKey(voucherId, i));
+            for (Map.Entry<Object, Object> entry : pending.entrySet()) {
+                String[] value = entry.getValue().toString().split(":", 2);
+                if (Long.parseLong(value[0]) > deadline) {
+                    continue;
+                }
+                Long userId = Long.valueOf(entry.getKey().toString());
+                try {
+                    reconcile(voucherId, k, i, userId, value[1]);
+                } catch (Exception e) {
+                    log.warn("秒杀待完成订单对账失败, voucherId={}, userId={}", voucherId, userId, e);
+                }
+            }
+        }
+    }
+
+    private void reconcile(Long voucherId, int k, int shard, Long userId, String state) {
+        if (HOME.equals(state)) {
+            // 1、主分片上扣到了库存，补发订单
+            redrive(voucherId, userId, k, shard);
+            return;
+        }
+        if (TAKEN.equals(state)) {
+            // 2、替扣标记：主记录还在的由主记录处理，不在了说明订单已经写进Stream
+            if (!stringRedisTemplate.opsForHash().hasKey(pendingKey(voucherId, homeShard(userId, k)), userId.toString())) {
+                stringRedisTemplate.opsForHash().delete(pendingKey(voucherId, shard), userId.toString());
+            }
+            return;
+        }
+        // 3、去其他分片扣的：找到替扣标记就补发订单，找不到说明没扣到库存，撤销占位
+        for (int i = 1; i < k; i++) {
+            int other = (shard + i) % k;
+            if (stringRedisTemplate.opsForHash().hasKey(pendingKey(voucherId, other), userId.toString())) {
+                redrive(voucherId, userId, k, other);
+                return;
+            }
+        }
+        release(voucherId, shard, userId, 0, true);
+        rolledBack.increment();
+    }
+
+    private void redrive(Long voucherId, Long userId, int k, int shard) {
+        complete(voucherId, userId, k, shard, redisIdWorker.nextId("order"));
+        redriven.increment();
+        log.warn("补发了一条没写进Stream的秒杀订单, voucherId={}, userId={}", voucherId, userId);
+    }
+
+    /**
+     * 在一个分片上撤销待完成的订单，记录不在时什么都不做
+     */
+    private void release(Long voucherId, int shard, Long userId, int giveBack, boolean unreserve) {
+        List<String> keys = unreserve
+                ? Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard), orderKey(voucherId, shard))
+                : Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard));
+        stringRedisTemplate.execute(RELEASE_SCRIPT, keys, userId.toString(), String.valueOf(giveBack));
+        released.increment();
+    }
+
+    /**
+     * 补库存，平均加到各分片上
+     */
+    public void restock(Long voucherId, int amount, int k) {
+        for (int i = 0; i < k; i++) {
+            long part = amount / k + (i < amount % k ? 1 : 0);
+            if (part > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), part);
+            }
+        }
+    }
+
+    /**
+     * 各分片当前的库存
+     */
+    public long[] stocks(Long voucherId, int k) {
+        long[] stocks = new long[k];
+        for (int i = 0; i < k; i++) {
+            String value = stringRedisTemplate.opsForValue().get(stockKey(voucherId, i));
+            stocks[i] = StrUtil.isBlank(value) ? 0 : Long.parseLong(value);
+        }
+        return stocks;
+    }
+
+    /**
+     * 把剩下的库存重新平均分到各分片：从多的分片原子地拿出超出平均数的部分，加到少的分片上。
+     * 剩下的库存不够每个分片一个时不再分，跨分片扣库存能处理
+     */
+    public void rebalance(Long voucherId, int k) {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_REBALANCE_KEY + voucherId);
+        // 多个节点同时发现分片扣空时只有一个去分
+        if (!lock.tryLock()) {
+            return;
+        }
+        String seqKey = SECKILL_REBALANCE_SEQ_KEY + voucherId;
+        // 上一次重新分配没走完就挂了，序号停在奇数，先补成偶数
+        if (isOdd(stringRedisTemplate.opsForValue().get(seqKey))) {
+            stringRedisTemplate.opsForValue().increment(seqKey);
+        }
+        // 序号变成奇数，搬库存期间其他节点不会确认售罄
+        stringRedisTemplate.opsForValue().increment(seqKey);
+        try {
+            long movedNow = rebalance(stocks(voucherId, k), (from, to, amount) -> {
+                long taken = take(voucherId, from, amount);
+                if (taken > 0) {
+                    stringRedisTemplate.opsForValue().increment(stockKey(voucherId, to), taken);
+                }
+                return taken;
+            });
+            if (movedNow < 0) {
+                return;
+            }
+            moved.add(movedNow);
+            rebalances.increment();
+        } finally {
+            stringRedisTemplate.opsForValue().increment(seqKey);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 计算并执行搬库存：把超出平均数的分片上多出来的部分搬到不足平均数的分片上
+     * @param stocks 各分片读到的库存，执行过程中会被更新
+     * @param mover 实际搬运，返回真正搬走的数量，可能因为并发扣减比要求的少
+     * @return 一共搬了多少，剩下的库存不够每个分片一个时不搬，返回-1
+     */
+    static long rebalance(long[] stocks, Mover mover) {
+        int k = stocks.length;
+        long total = 0;
+        for (long stock : stocks) {
+            total += stock;
+        }
+        if (total < k) {
+            return -1;
+        }
+        long target = total / k;
+        long movedTotal = 0;
+        int donor = 0;
+        for (int i = 0; i < k; i++) {
+            long need = target - stocks[i];
+            while (need > 0) {
+                while (donor < k && stocks[donor] <= target) {
+                    donor++;
+                }
+                if (donor == k) {
+                    break;
+                }
+                // 读到的库存可能已经被扣掉了一些，以实际搬走的为准，拿多少加多少，总数不变
+                long taken = mover.move(donor, i, Math.min(need, stocks[donor] - target));
+                stocks[donor] = taken > 0 ? stocks[donor] - taken : target;
+                if (taken > 0) {
+                    stocks[i] += taken;
+                    need -= taken;
+                    movedTotal += taken;
+                }
+            }
+        }
+        return movedTotal;
+    }
+
+    /**
+     * 从一个分片搬库存到另一个分片
+     */
+    interface Mover {
+        long move(int from, int to, long amount);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shardCount", shardCount);
+        stats.put("minStock", minStock);
+        stats.put("sharded", sharded);
+        stats.put("acquired", acquired.sum());
+        stats.put("fallovers", fallovers.sum());
+        stats.put("soldOut", soldOut.sum());
+        stats.put("retries", retries.sum());
+        stats.put("rebalances", rebalances.sum());
+        stats.put("moved", moved.sum());
+        stats.put("released", released.sum());
+        stats.put("redriven", redriven.sum());
+        stats.put("rolledBack", rolledBack.sum());
+        return stats;
+    }
+
+    /**
+     * 一张券各分片的库存
+     */
+    public Map<String, Object> stats(Long voucherId) {
+        int k = shardCount(voucherId);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("voucherId", voucherId);
+        stats.put("shardCount", k);
+        if (k > 1) {
+            long[] stocks = stocks(voucherId, k);
+            List<Long> list = new ArrayList<>(k);
+            long total = 0;
+            for (long stock : stocks) {
+                list.add(stock);
+                total += stock;
+            }
+            stats.put("stocks", Collections.unmodifiableList(list));
+            stats.put("total", total);
+        }
+        return stats;
+    }
+
+    private void scheduleRebalance(Long voucherId, int k) {
+        long now = System.currentTimeMillis();
+        Long last = lastRebalance.get(voucherId);
+        if (last != null && now - last < rebalanceIntervalMillis) {
+            return;
+        }
+        if (!rebalancing.add(voucherId)) {
+            return;
+        }
+        lastRebalance.put(voucherId, now);
+        REBALANCE_EXECUTOR.submit(() -> {
+            try {
+                rebalance(voucherId, k);
+            } catch (Exception e) {
+                // 没分成也只是多几次跨分片扣库存
+                log.warn("秒杀券分片库存重新分配失败, voucherId={}", voucherId, e);
+            } finally {
+                rebalancing.remove(voucherId);
+            }
+        });
+    }
+
+    private long take(Long voucherId, int shard, long amount) {
+        Long taken = stringRedisTemplate.execute(
+                TAKE_SCRIPT,
+                Collections.singletonList(stockKey(voucherId, shard)),
+                String.valueOf(amount));
+        return taken == null ? 0 : taken;
+    }
+
+    /**
+     * 替用户从其他分片扣一个库存，扣到的话在那个分片上留下替扣标记
+     */
+    private long take(Long voucherId, int shard, long amount, Long userId, String now) {
+        Long taken = stringRedisTemplate.execute(
+                TAKE_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard)),
+                String.valueOf(amount), userId.toString(), now);
+        return taken == null ? 0 : taken;
+    }
+
+    private static int homeShard(Long userId, int k) {
+        return Math.floorMod(userId.hashCode(), k);
+    }
+
+    /**
+     * 分片的库存key，{}里是哈希标签，同一分片的库存和已下单用户在同一个槽
+     */
+    private static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String pendingKey(Long voucherId, int shard) {
+        return SECKILL_PENDING_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+}
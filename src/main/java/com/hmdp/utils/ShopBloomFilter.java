@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+//店铺id的布隆过滤器：不存在的id直接拒绝，不再打到Redis和MySQL，代替逐个id缓存空值
+@Slf4j
+@Component
+public class ShopBloomFilter implements ShopChangeListener {
+
+    private static final String[] ID_COLUMN = {"id"};
+
+    private static final ExecutorService BLOOM_REBUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Value("${hmdp.shop.bloom.fpp:0.001}")
+    private double fpp;
+
+    /**
+     * 预估店铺数量，实际数量更多时按实际数量的两倍分配，给后续新增留余量
+     */
+    @Value("${hmdp.shop.bloom.expected-insertions:100000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.shop.bloom.scan-batch-size:5000}")
+    private int scanBatchSize;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    //正在对外服务的过滤器，为null说明还没构建完，此时全部放行
+    private volatile BloomFilter current;
+    //重建过程中新增的id要同时写到新过滤器里，避免切换后丢失
+    private volatile BloomFilter building;
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private volatile long insertions;
+    private final LongAdder rejected = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        rebuildAsync();
+    }
+
+    /**
+     * 判断店铺id是否可能存在
+     *
+     * @param id 店铺id
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(Long id) {
+        BloomFilter filter = current;
+        if (filter == null || id == null) {
+            return true;
+        }
+        if (filter.mightContain(id)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void put(Long id) {
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(id);
+        }
+        BloomFilter next = building;
+        if (next != null) {
+            next.put(id);
+        }
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        // 其他节点新增的店铺也要加进来
+        put(shopId);
+    }
+
+    /**
+     * 在线重建，重建期间旧过滤器继续服务
+     *
+     * @return 已经有重建任务在跑时返回false
+     */
+    public boolean rebuildAsync() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        BLOOM_REBUILD_EXECUTOR.submit(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                log.error("重建店铺布隆过滤器失败", e);
+            } finally {
+                building = null;
+                rebuilding.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void rebuild() {
+        long begin = System.currentTimeMillis();
+        // 1、按当前数据量确定容量
+        long count = shopMapper.selectCount(null);
+        long capacity = Math.max(expectedInsertions, count * 2);
+        BloomFilter filter = new BloomFilter(capacity, fpp);
+        building = filter;
+        // 2、分批扫描所有id
+        long total = shopScanner.scan(scanBatchSize, ID_COLUMN, shops -> shops.forEach(shop -> filter.put(shop.getId())));
+        // 3、切换
+        current = filter;
+        insertions = total;
+        log.info("店铺布隆过滤器构建完成, 店铺数={}, 位数={}, 哈希函数数={}, 耗时={}ms",
+                total, filter.bitSize(), filter.hashCount(), System.currentTimeMillis() - begin);
+    }
+
+    public Map<String, Object> stats() {
+        BloomFilter filter = current;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", filter != null);
+        stats.put("rebuilding", rebuilding.get());
+        stats.put("fpp", fpp);
+        stats.put("insertions", insertions);
+        stats.put("bitSize", filter == null ? 0 : filter.bitSize());
+        stats.put("hashCount", filter == null ? 0 : filter.hashCount());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 店铺缓存的序列化方式
+ * 逻辑过期的缓存存RedisData（data字段是Shop），旁路缓存直接存Shop
+ */
+public interface ShopCacheCodec {
+
+    byte[] encode(RedisData redisData);
+
+    /**
+     * 反序列化缓存，返回的RedisData里data字段已经是Shop
+     * 如果存的是店铺本身（encodeShop写入的），expireTime为null
+     */
+    RedisData decode(byte[] bytes);
+
+    byte[] encodeShop(Shop shop);
+}
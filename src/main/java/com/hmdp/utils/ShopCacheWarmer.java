@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+//店铺缓存预热：分批扫描tb_shop，用管道批量写入缓存，启动时和定时各跑一次
+//旁路缓存策略下写带随机抖动TTL的缓存，其他策略写逻辑过期的缓存
+@Slf4j
+@Component
+public class ShopCacheWarmer {
+
+    private static final ExecutorService CACHE_WARMUP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Value("${hmdp.cache.shop.warmup.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 预热写入的逻辑过期时间，要比定时预热的间隔长，保证下次预热前不会过期
+     */
+    @Value("${hmdp.cache.shop.warmup.logical-expire-seconds:3600}")
+    private long logicalExpireSeconds;
+
+    @Value("${hmdp.cache.shop.strategy:logical}")
+    private String cacheStrategy;
+
+    @Value("${hmdp.cache.shop.aside.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    @Value("${hmdp.cache.shop.aside.xfetch.enabled:true}")
+    private boolean xfetchEnabled;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    @Resource
+    private ShopCacheCodec shopCacheCodec;
+
+    //第一次预热完成之前不对外提供服务
+    private volatile boolean ready = false;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile long lastCount;
+    private volatile long lastCostMillis;
+    private volatile LocalDateTime lastFinishTime;
+    //上一批写完的时间，到下一批回调之间就是扫描这一批的数据库耗时，给XFetch当重建耗时
+    private long lastBatchEnd;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        warmUpAsync();
+    }
+
+    /**
+     * 在预热线程里全量预热
+     *
+     * @return 已经有预热任务在跑时返回false
+     */
+    public boolean warmUpAsync() {
+        if (running.get()) {
+            return false;
+        }
+        CACHE_WARMUP_EXECUTOR.submit(this::warmUp);
+        return true;
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.cache.shop.warmup.interval-ms:1800000}",
+            fixedDelayString = "${hmdp.cache.shop.warmup.interval-ms:1800000}")
+    public void scheduledWarmUp() {
+        warmUp();
+    }
+
+    /**
+     * 全量预热
+     *
+     * @return 已经有预热任务在跑时返回false
+     */
+    public boolean warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            lastBatchEnd = begin;
+            long count = shopScanner.scan(batchSize, this::writeBatch);
+            lastCount = count;
+            lastCostMillis = System.currentTimeMillis() - begin;
+            lastFinishTime = LocalDateTime.now();
+            ready = true;
+            log.info("店铺缓存预热完成, 店铺数={}, 耗时={}ms", count, lastCostMillis);
+            return true;
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败", e);
+            return false;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    //一批店铺只走一次网络往返
+    private void writeBatch(List<Shop> shops) {
+        boolean aside = "aside".equals(cacheStrategy);
+        long rebuildMillis = System.currentTimeMillis() - lastBatchEnd;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expireTime = now.plusSeconds(logicalExpireSeconds);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            RedisStringCommands commands = connection.stringCommands();
+            for (Shop shop : shops) {
+                byte[] key = (CACHE_SHOP_KEY + shop.getId()).getBytes(StandardCharsets.UTF_8);
+                if (aside) {
+                    // 旁路缓存必须有真实TTL，否则永不过期，抖动和XFetch都不起作用
+                    long ttl = jitter(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL));
+                    commands.set(key, encodeAside(shop, now.plusSeconds(ttl), rebuildMillis),
+                            Expiration.seconds(ttl), RedisStringCommands.SetOption.upsert());
+                    continue;
+                }
+                RedisData redisData = new RedisData();
+                redisData.setData(shop);
+                redisData.setExpireTime(expireTime);
+                commands.set(key, shopCacheCodec.encode(redisData));
+            }
+            return null;
+        });
+        lastBatchEnd = System.currentTimeMillis();
+    }
+
+    //和ShopServiceImpl加载旁路缓存时写的格式一样
+    private byte[] encodeAside(Shop shop, LocalDateTime expireTime, long rebuildMillis) {
+        if (!xfetchEnabled) {
+            return shopCacheCodec.encodeShop(shop);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildMillis(rebuildMillis);
+        return shopCacheCodec.encode(redisData);
+    }
+
+    private long jitter(long ttlSeconds) {
+        double factor = 1 + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * ttlJitter;
+        return Math.max(1, Math.round(ttlSeconds * factor));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("running", running.get());
+        stats.put("lastCount", lastCount);
+        stats.put("lastCostMillis", lastCostMillis);
+        stats.put("lastFinishTime", lastFinishTime);
+        return stats;
+    }
+}
@@ -0,0 +1,10 @@
+package com.hmdp.utils;
+
+/**
+ * 店铺变更监听器，每个节点收到店铺变更广播后都会回调
+ * 在Redis的订阅线程上执行，只能做不访问数据库的轻量操作；需要店铺数据的本地索引继承 {@link AbstractShopIndex}
+ */
+public interface ShopChangeListener {
+
+    void onShopChanged(Long shopId);
+}
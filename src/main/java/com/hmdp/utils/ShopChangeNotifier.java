@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGE_TOPIC;
+
+//店铺变更广播：通过Redis发布订阅通知所有节点，再分发给本节点的监听器
+//本地索引需要店铺的最新数据，在后台线程里查一次数据库后交给所有索引，不占用Redis的订阅线程
+@Slf4j
+@Component
+public class ShopChangeNotifier {
+
+    private static final ExecutorService SHOP_CHANGE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private List<ShopChangeListener> listeners;
+
+    @Resource
+    private List<AbstractShopIndex> indexes;
+
+    //排队等待加载的店铺，还没加载时又收到的消息（比如延迟双删的第二次广播）合并成一次
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            dispatch(Long.valueOf(body));
+        }, new ChannelTopic(SHOP_CHANGE_TOPIC));
+    }
+
+    /**
+     * 广播店铺变更，自己这个节点也会收到
+     *
+     * @param shopId 店铺id
+     */
+    public void publish(Long shopId) {
+        stringRedisTemplate.convertAndSend(SHOP_CHANGE_TOPIC, shopId.toString());
+    }
+
+    /**
+     * 批量广播，用管道一次发出去
+     *
+     * @param shopIds 店铺id
+     */
+    public void publish(Collection<Long> shopIds) {
+        byte[] channel = SHOP_CHANGE_TOPIC.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long shopId : shopIds) {
+                connection.publish(channel, shopId.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    private void dispatch(Long shopId) {
+        for (ShopChangeListener listener : listeners) {
+            try {
+                listener.onShopChanged(shopId);
+            } catch (Exception e) {
+                // 一个监听器出错不能影响其他监听器
+                log.error("处理店铺变更消息异常, shopId={}", shopId, e);
+            }
+        }
+        if (!indexes.isEmpty() && queued.add(shopId)) {
+            SHOP_CHANGE_EXECUTOR.submit(() -> load(shopId));
+        }
+    }
+
+    private void load(Long shopId) {
+        // 先出队再查库，查询之后的变更会重新排队
+        queued.remove(shopId);
+        Shop shop;
+        try {
+            shop = shopMapper.selectById(shopId);
+        } catch (Exception e) {
+            // 下次全量构建会修正
+            log.error("加载变更的店铺失败, shopId={}", shopId, e);
+            return;
+        }
+        for (AbstractShopIndex index : indexes) {
+            try {
+                index.onShopChanged(shopId, shop);
+            } catch (Exception e) {
+                log.error("更新店铺索引异常, shopId={}, index={}", shopId, index.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopFilterDTO;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 店铺多条件筛选：每个属性值一个压缩位图（RoaringBitmap），价格和评分按区间分桶
+ * 组合条件就是位图求交集，桶边界上的店铺再用精确值校验一遍
+ * 启动时从数据库全量构建，店铺变更时增量更新这一家店铺
+ */
+@Slf4j
+@Component
+public class ShopFilterIndex extends AbstractShopIndex {
+
+    private static final ExecutorService FILTER_BUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "type_id", "area", "avg_price", "score", "sold", "comments"};
+
+    /**
+     * 价格分桶的宽度（元）
+     */
+    @Value("${hmdp.shop.filter.price-bucket:50}")
+    private int priceBucket;
+
+    /**
+     * 评分分桶的宽度，评分是0~50的整数
+     */
+    @Value("${hmdp.shop.filter.score-bucket:5}")
+    private int scoreBucket;
+
+    @Value("${hmdp.shop.filter.batch-size:1000}")
+    private int batchSize;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    @Resource
+    private ShopOpenHoursIndex shopOpenHoursIndex;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Index index = new Index();
+
+    public ShopFilterIndex() {
+        super("店铺筛选索引");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        FILTER_BUILD_EXECUTOR.submit(this::rebuild);
+    }
+
+    /**
+     * 哈希缓存模式下销量、评论数的变化不会广播，定时全量重建一次让排序跟上
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.filter.rebuild-ms:600000}",
+            fixedDelayString = "${hmdp.shop.filter.rebuild-ms:600000}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    @Override
+    protected long build() {
+        Index built = new Index();
+        long count = shopScanner.scan(batchSize, COLUMNS, shops -> shops.forEach(built::add));
+        built.runOptimize();
+        lock.writeLock().lock();
+        try {
+            index = built;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    @Override
+    protected void apply(Long shopId, Shop shop) {
+        lock.writeLock().lock();
+        try {
+            index.remove(shopId);
+            if (shop != null) {
+                index.add(shop);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按条件筛选
+     *
+     * @param from 跳过的条数
+     * @param size 返回的条数
+     * @param ids  这一页的店铺id，按排序放进来
+     * @return 满足条件的总数
+     */
+    public int filter(ShopFilterDTO filter, int from, int size, List<Long> ids) {
+        List<Doc> docs = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // 1、各个条件的位图求交集，从最有区分度的类型开始
+            RoaringBitmap result = filter.getTypeId() == null
+                    ? index.all.clone() : copy(index.byType.get(filter.getTypeId()));
+            if (StrUtil.isNotBlank(filter.getArea())) {
+                result.and(copy(index.byArea.get(filter.getArea())));
+            }
+            if (filter.getMinPrice() != null || filter.getMaxPrice() != null) {
+                long min = filter.getMinPrice() == null ? 0 : filter.getMinPrice();
+                long max = filter.getMaxPrice() == null ? Long.MAX_VALUE : filter.getMaxPrice();
+                result.and(union(index.byPrice, bucket(min, priceBucket), bucket(max, priceBucket)));
+            }
+            if (filter.getMinScore() != null) {
+                result.and(union(index.byScore, bucket(filter.getMinScore(), scoreBucket), Integer.MAX_VALUE));
+            }
+            // 2、桶边界上的店铺按精确值校验，再用营业时间位图判断是否营业
+            LocalTime openAt = filter.openTime();
+            result.forEach((int id) -> {
+                Doc doc = index.docs.get(id);
+                if (doc != null && matches(doc, filter, openAt)) {
+                    docs.add(doc);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 3、排序分页
+        docs.sort(comparator(filter.getSortBy()));
+        for (int i = from; i < docs.size() && i < from + size; i++) {
+            ids.add((long) docs.get(i).id);
+        }
+        return docs.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("ready", isReady());
+            stats.put("shops", index.docs.size());
+            stats.put("types", index.byType.size());
+            stats.put("areas", index.byArea.size());
+            stats.put("priceBuckets", index.byPrice.size());
+            stats.put("scoreBuckets", index.byScore.size());
+            stats.put("bitmapBytes", index.bitmapBytes());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("lastRebuildMillis", getLastRebuildMillis());
+        stats.put("lastRebuildTime", getLastRebuildTime());
+        return stats;
+    }
+
+    private boolean matches(Doc doc, ShopFilterDTO filter, LocalTime openAt) {
+        if (filter.getMinPrice() != null && doc.price < filter.getMinPrice()) {
+            return false;
+        }
+        if (filter.getMaxPrice() != null && doc.price > filter.getMaxPrice()) {
+            return false;
+        }
+        if (filter.getMinScore() != null && doc.score < filter.getMinScore()) {
+            return false;
+        }
+        return openAt == null || shopOpenHoursIndex.isOpen(doc.id, openAt);
+    }
+
+    private static Comparator<Doc> comparator(String sortBy) {
+        Comparator<Doc> byId = Comparator.comparingInt(d -> d.id);
+        if (ShopRankBoard.SCORE.equals(sortBy)) {
+            return Comparator.comparingInt((Doc d) -> d.score).reversed().thenComparing(byId);
+        }
+        if (ShopRankBoard.SOLD.equals(sortBy)) {
+            return Comparator.comparingInt((Doc d) -> d.sold).reversed().thenComparing(byId);
+        }
+        if (ShopRankBoard.COMMENTS.equals(sortBy)) {
+            return Comparator.comparingInt((Doc d) -> d.comments).reversed().thenComparing(byId);
+        }
+        return byId;
+    }
+
+    private static int bucket(long value, int width) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, value) / width);
+    }
+
+    //区间内所有桶的并集
+    private static RoaringBitmap union(Map<Integer, RoaringBitmap> buckets, int from, int to) {
+        RoaringBitmap result = new RoaringBitmap();
+        buckets.forEach((bucket, bitmap) -> {
+            if (bucket >= from && bucket <= to) {
+                result.or(bitmap);
+            }
+        });
+        return result;
+    }
+
+    private static RoaringBitmap copy(RoaringBitmap bitmap) {
+        return bitmap == null ? new RoaringBitmap() : bitmap.clone();
+    }
+
+    //位图只能存int，店铺id超出范围的不进索引
+    private static boolean indexable(Long id) {
+        return id != null && id > 0 && id <= Integer.MAX_VALUE;
+    }
+
+    private class Index {
+        final RoaringBitmap all = new RoaringBitmap();
+        final Map<Long, RoaringBitmap> byType = new HashMap<>();
+        final Map<String, RoaringBitmap> byArea = new HashMap<>();
+        final Map<Integer, RoaringBitmap> byPrice = new HashMap<>();
+        final Map<Integer, RoaringBitmap> byScore = new HashMap<>();
+        final Map<Integer, Doc> docs = new HashMap<>();
+
+        void add(Shop shop) {
+            if (!indexable(shop.getId())) {
+                log.warn("店铺id超出筛选索引范围, id={}", shop.getId());
+                return;
+            }
+            Doc doc = new Doc(shop);
+            docs.put(doc.id, doc);
+            all.add(doc.id);
+            if (shop.getTypeId() != null) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new RoaringBitmap()).add(doc.id);
+            }
+            if (StrUtil.isNotBlank(shop.getArea())) {
+                byArea.computeIfAbsent(shop.getArea(), k -> new RoaringBitmap()).add(doc.id);
+            }
+            byPrice.computeIfAbsent(bucket(doc.price, priceBucket), k -> new RoaringBitmap()).add(doc.id);
+            byScore.computeIfAbsent(bucket(doc.score, scoreBucket), k -> new RoaringBitmap()).add(doc.id);
+        }
+
+        void remove(Long shopId) {
+            if (!indexable(shopId)) {
+                return;
+            }
+            Doc doc = docs.remove(shopId.intValue());
+            if (doc == null) {
+                return;
+            }
+            all.remove(doc.id);
+            removeFrom(byType, doc.typeId, doc.id);
+            removeFrom(byArea, doc.area, doc.id);
+            removeFrom(byPrice, bucket(doc.price, priceBucket), doc.id);
+            removeFrom(byScore, bucket(doc.score, scoreBucket), doc.id);
+        }
+
+        void runOptimize() {
+            all.runOptimize();
+            byType.values().forEach(RoaringBitmap::runOptimize);
+            byArea.values().forEach(RoaringBitmap::runOptimize);
+            byPrice.values().forEach(RoaringBitmap::runOptimize);
+            byScore.values().forEach(RoaringBitmap::runOptimize);
+        }
+
+        long bitmapBytes() {
+            long bytes = all.getLongSizeInBytes();
+            for (Map<?, RoaringBitmap> map : Arrays.asList(byType, byArea, byPrice, byScore)) {
+                for (RoaringBitmap bitmap : map.values()) {
+                    bytes += bitmap.getLongSizeInBytes();
+                }
+            }
+            return bytes;
+        }
+
+        private <K> void removeFrom(Map<K, RoaringBitmap> map, K key, int id) {
+            if (key == null) {
+                return;
+            }
+            RoaringBitmap bitmap = map.get(key);
+            if (bitmap != null) {
+                bitmap.remove(id);
+                if (bitmap.isEmpty()) {
+                    map.remove(key);
+                }
+            }
+        }
+    }
+
+    private static class Doc {
+        final int id;
+        final Long typeId;
+        final String area;
+        final long price;
+        final int score;
+        final int sold;
+        final int comments;
+
+        Doc(Shop shop) {
+            this.id = shop.getId().intValue();
+            this.typeId = shop.getTypeId();
+            this.area = StrUtil.isBlank(shop.getArea()) ? null : shop.getArea();
+            this.price = shop.getAvgPrice() == null ? 0 : shop.getAvgPrice();
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+            this.sold = shop.getSold() == null ? 0 : shop.getSold();
+            this.comments = shop.getComments() == null ? 0 : shop.getComments();
+        }
+    }
+}
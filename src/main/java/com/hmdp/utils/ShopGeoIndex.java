@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 店铺的GEO索引：每个类型一个 shop:geo:{typeId}，成员是店铺id
+ * 启动时全量加载，新增和修改店铺时同步
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    private static final ExecutorService GEO_LOAD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Value("${hmdp.shop.geo.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 附近搜索的最大半径
+     */
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double radiusMeters;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        GEO_LOAD_EXECUTOR.submit(this::load);
+    }
+
+    /**
+     * 全量加载，只查坐标相关的列，每批一次管道
+     *
+     * @return 加载的店铺数
+     */
+    public long load() {
+        try {
+            long begin = System.currentTimeMillis();
+            long count = shopScanner.scan(batchSize, new String[]{"id", "type_id", "x", "y"}, this::addBatch);
+            log.info("店铺GEO索引加载完成, 店铺数={}, 耗时={}ms", count, System.currentTimeMillis() - begin);
+            return count;
+        } catch (Exception e) {
+            log.error("店铺GEO索引加载失败", e);
+            return -1;
+        }
+    }
+
+    private void addBatch(List<Shop> shops) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Shop shop : shops) {
+                if (hasLocation(shop)) {
+                    connection.geoAdd(key(shop.getTypeId()), new Point(shop.getX(), shop.getY()), member(shop.getId()));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 同步一批店铺：先从所有类型里删掉，再加到当前类型，这样修改了类型的店铺也不会留在旧的集合里
+     *
+     * @param shopIds 需要同步的店铺id
+     * @param shops   这些店铺在数据库里的最新数据，已经删除的店铺不在里面
+     */
+    public void sync(Collection<Long> shopIds, Collection<Shop> shops) {
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        List<Long> typeIds = shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))
+                .stream().map(ShopType::getId).collect(Collectors.toList());
+        byte[][] members = shopIds.stream().map(ShopGeoIndex::member).toArray(byte[][]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long typeId : typeIds) {
+                connection.zRem(key(typeId), members);
+            }
+            for (Shop shop : shops) {
+                if (hasLocation(shop)) {
+                    connection.geoAdd(key(shop.getTypeId()), new Point(shop.getX(), shop.getY()), member(shop.getId()));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 新增的店铺不可能在别的类型里，直接加
+     */
+    public void add(Shop shop) {
+        if (hasLocation(shop)) {
+            addBatch(Collections.singletonList(shop));
+        }
+    }
+
+    /**
+     * 按距离由近到远查询某个类型的店铺
+     *
+     * @param typeId 店铺类型
+     * @param x      经度
+     * @param y      纬度
+     * @param from   跳过的条数
+     * @param size   返回的条数
+     * @return 店铺id到距离（米）的映射，按距离排序
+     */
+    public Map<Long, Double> search(Long typeId, double x, double y, int from, int size) {
+        // GEORADIUS只能从头取，取 from+size 条再跳过前面的
+        RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs()
+                .includeDistance()
+                .sortAscending()
+                .limit(from + size);
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS)),
+                args);
+        if (results == null) {
+            return Collections.emptyMap();
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        Map<Long, Double> distances = new LinkedHashMap<>();
+        for (int i = from; i < list.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = list.get(i);
+            distances.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return distances;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    private static byte[] key(Long typeId) {
+        return (SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] member(Long shopId) {
+        return shopId.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongPredicate;
+
+/**
+ * 本地的附近店铺索引：每个类型一个 {@link GeoGrid}，附近查询不用访问Redis
+ * 启动时从数据库全量构建，店铺变更时单独更新这一家店铺
+ * 另外记下每家店铺所在的类型和坐标，更新时只动原来所在的那个网格，并且只在它的格子里找
+ */
+@Component
+public class ShopGridIndex extends AbstractShopIndex {
+
+    private static final ExecutorService GRID_BUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "type_id", "x", "y"};
+    //locations里每家店铺的估算占用（压缩指针）：ConcurrentHashMap的Node 32 + Long 16 + Location 32 + 桶数组 8
+    private static final int BYTES_PER_LOCATION = 88;
+
+    @Value("${hmdp.shop.geo.local.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 格子边长（度），0.01度大约1公里
+     */
+    @Value("${hmdp.shop.geo.local.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    @Value("${hmdp.shop.geo.batch-size:1000}")
+    private int batchSize;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    private volatile Map<Long, GeoGrid> grids = new ConcurrentHashMap<>();
+    //店铺id -> 在索引里的类型和坐标
+    private volatile Map<Long, Location> locations = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    public ShopGridIndex() {
+        super("本地附近店铺索引");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * 在构建线程里全量构建，不占用调用方的线程
+     *
+     * @return 已经有构建任务在排队或者在跑时返回false
+     */
+    public boolean rebuildAsync() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        GRID_BUILD_EXECUTOR.submit(() -> {
+            try {
+                rebuild();
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从数据库分批扫描，全部读完后一次性替换
+     */
+    @Override
+    protected long build() {
+        Map<Long, Points> points = new HashMap<>();
+        Map<Long, Location> builtLocations = new ConcurrentHashMap<>();
+        long count = shopScanner.scan(batchSize, COLUMNS, shops -> {
+            for (Shop shop : shops) {
+                if (hasLocation(shop)) {
+                    points.computeIfAbsent(shop.getTypeId(), k -> new Points()).add(shop);
+                    builtLocations.put(shop.getId(), new Location(shop));
+                }
+            }
+        });
+        Map<Long, GeoGrid> built = new ConcurrentHashMap<>();
+        points.forEach((typeId, p) -> built.put(typeId, GeoGrid.build(cellDegrees, p.ids, p.xs, p.ys, p.n)));
+        synchronized (this) {
+            grids = built;
+            locations = builtLocations;
+        }
+        return count;
+    }
+
+    @Override
+    public void onShopChanged(Long shopId, Shop shop) {
+        if (enabled) {
+            super.onShopChanged(shopId, shop);
+        }
+    }
+
+    //店铺可能换了类型或者坐标，先从原来的网格里删掉再加到新的网格
+    @Override
+    protected synchronized void apply(Long shopId, Shop shop) {
+        Location old = locations.remove(shopId);
+        if (old != null) {
+            grids.computeIfPresent(old.typeId, (typeId, grid) -> grid.without(shopId, old.x, old.y));
+        }
+        if (shop != null && hasLocation(shop)) {
+            grids.compute(shop.getTypeId(), (typeId, grid) ->
+                    (grid == null ? new GeoGrid(cellDegrees) : grid).plus(shopId, shop.getX(), shop.getY()));
+            locations.put(shopId, new Location(shop));
+        }
+    }
+
+    /**
+     * 最近的k家店
+     *
+     * @param after  上一页最后一家店，为null时从头开始
+     * @param accept 按店铺id过滤，为null时不过滤
+     */
+    public List<GeoGrid.Hit> nearest(Long typeId, double x, double y, int k, double maxRadius,
+                                     GeoGrid.Hit after, LongPredicate accept) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? Collections.emptyList() : grid.nearest(x, y, k, maxRadius, after, accept);
+    }
+
+    /**
+     * 半径内的店铺，按距离排序
+     *
+     * @param after  上一页最后一家店，为null时从头开始
+     * @param accept 按店铺id过滤，为null时不过滤
+     */
+    public List<GeoGrid.Hit> within(Long typeId, double x, double y, double radius, int limit,
+                                    GeoGrid.Hit after, LongPredicate accept) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? Collections.emptyList() : grid.within(x, y, radius, limit, after, accept);
+    }
+
+    public Map<String, Object> stats() {
+        long shops = 0, gridBytes = 0;
+        for (GeoGrid grid : grids.values()) {
+            shops += grid.size();
+            gridBytes += grid.arrayBytes();
+        }
+        long locationBytes = (long) BYTES_PER_LOCATION * locations.size();
+        long bytes = gridBytes + locationBytes;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("types", grids.size());
+        stats.put("shops", shops);
+        stats.put("gridBytes", gridBytes);
+        stats.put("locationBytes", locationBytes);
+        stats.put("memoryBytes", bytes);
+        stats.put("bytesPerShop", shops == 0 ? 0 : bytes / shops);
+        stats.put("lastRebuildMillis", getLastRebuildMillis());
+        stats.put("lastRebuildTime", getLastRebuildTime());
+        return stats;
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    private static class Location {
+        final Long typeId;
+        final double x;
+        final double y;
+
+        Location(Shop shop) {
+            this.typeId = shop.getTypeId();
+            this.x = shop.getX();
+            this.y = shop.getY();
+        }
+    }
+
+    //构建时按类型收集坐标的缓冲区
+    private static class Points {
+        long[] ids = new long[64];
+        double[] xs = new double[64];
+        double[] ys = new double[64];
+        int n;
+
+        void add(Shop shop) {
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+                xs = Arrays.copyOf(xs, n * 2);
+                ys = Arrays.copyOf(ys, n * 2);
+            }
+            ids[n] = shop.getId();
+            xs[n] = shop.getX();
+            ys[n] = shop.getY();
+            n++;
+        }
+    }
+}
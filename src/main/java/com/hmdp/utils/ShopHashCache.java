@@ -0,0 +1,243 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺的哈希缓存：每个字段单独存，计数器可以原地HINCRBY，读的时候也可以只取需要的字段
+ * 字段少、值短时Redis用紧凑编码（listpack/ziplist）存，比较省内存；
+ * images往往超过默认的hash-max-listpack-value(64字节)，需要把这个配置调大才能保持紧凑编码
+ */
+@Component
+public class ShopHashCache {
+
+    public static final String SOLD = "sold";
+    public static final String COMMENTS = "comments";
+
+    /**
+     * 可以单独读取的字段
+     */
+    public static final Set<String> FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "id", "name", "typeId", "images", "area", "address", "x", "y",
+            "avgPrice", SOLD, COMMENTS, "score", "openHours", "createTime", "updateTime")));
+
+    //店铺不存在时写入的标记字段
+    private static final String NULL_FIELD = "_null";
+
+    private static final DefaultRedisScript<Long> HINCR_SCRIPT;
+    static {
+        HINCR_SCRIPT = new DefaultRedisScript<>();
+        HINCR_SCRIPT.setLocation(new ClassPathResource("shop_hincr.lua"));
+        HINCR_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 读取整个店铺
+     *
+     * @return 缓存不存在返回null，店铺不存在返回没有id的空对象
+     */
+    public Shop get(Long id) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(CACHE_SHOP_HASH_KEY + id);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<>(entries.size() * 2);
+        entries.forEach((k, v) -> map.put((String) k, (String) v));
+        return fromHash(map);
+    }
+
+    /**
+     * 批量读取，一次管道执行所有HGETALL
+     *
+     * @return 有缓存的店铺，店铺不存在的是没有id的空对象，缓存不存在的不在里面
+     */
+    public Map<Long, Shop> getAll(List<Long> ids) {
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Long id : ids) {
+                    operations.opsForHash().entries(CACHE_SHOP_HASH_KEY + id);
+                }
+                return null;
+            }
+        });
+        Map<Long, Shop> shops = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            Map<?, ?> entries = (Map<?, ?>) results.get(i);
+            if (entries == null || entries.isEmpty()) {
+                continue;
+            }
+            Map<String, String> map = new HashMap<>(entries.size() * 2);
+            entries.forEach((k, v) -> map.put((String) k, (String) v));
+            shops.put(ids.get(i), fromHash(map));
+        }
+        return shops;
+    }
+
+    /**
+     * 只读取指定的字段
+     *
+     * @return 缓存不存在返回null
+     */
+    public Map<String, String> getFields(Long id, List<String> fields) {
+        List<Object> keys = new ArrayList<>(fields.size() + 1);
+        keys.add(NULL_FIELD);
+        keys.addAll(fields);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(CACHE_SHOP_HASH_KEY + id, keys);
+        boolean exists = false;
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 1; i < keys.size(); i++) {
+            Object value = values.get(i);
+            exists |= value != null;
+            result.put((String) keys.get(i), (String) value);
+        }
+        if (values.get(0) != null) {
+            // 店铺不存在
+            return Collections.emptyMap();
+        }
+        return exists ? result : null;
+    }
+
+    public void put(Shop shop) {
+        String key = CACHE_SHOP_HASH_KEY + shop.getId();
+        Map<String, String> hash = toHash(shop);
+        // HSET和EXPIRE放到一个事务里，避免留下不过期的缓存
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.multi();
+                operations.opsForHash().putAll(key, hash);
+                operations.expire(key, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                return operations.exec();
+            }
+        });
+    }
+
+    public void putNull(Long id) {
+        String key = CACHE_SHOP_HASH_KEY + id;
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.multi();
+                operations.opsForHash().put(key, NULL_FIELD, "1");
+                operations.expire(key, CACHE_NULL_TTL, TimeUnit.SECONDS);
+                return operations.exec();
+            }
+        });
+    }
+
+    /**
+     * 计数器原地自增，缓存不存在时什么都不做
+     *
+     * @return 自增后的值，缓存不存在时返回null
+     */
+    public Long increment(Long id, String field, long delta) {
+        return stringRedisTemplate.execute(HINCR_SCRIPT,
+                Collections.singletonList(CACHE_SHOP_HASH_KEY + id), field, String.valueOf(delta));
+    }
+
+    public void delete(Long id) {
+        stringRedisTemplate.delete(CACHE_SHOP_HASH_KEY + id);
+    }
+    /**
+     * 批量回填，一次管道写完；不存在的店铺写空值标记
+     * HSET和EXPIRE在同一个连接上紧挨着发出去，只有连接在两条命令之间断开才会留下不过期的缓存
+     */
+    public void putAll(List<Long> ids, Map<Long, Shop> shops) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Long id : ids) {
+                    String key = CACHE_SHOP_HASH_KEY + id;
+                    Shop shop = shops.get(id);
+                    if (shop == null) {
+                        operations.opsForHash().put(key, NULL_FIELD, "1");
+                        operations.expire(key, CACHE_NULL_TTL, TimeUnit.SECONDS);
+                    } else {
+                        operations.opsForHash().putAll(key, toHash(shop));
+                        operations.expire(key, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Map<String, String> toHash(Shop shop) {
+        Map<String, String> hash = new HashMap<>(32);
+        putIfNotNull(hash, "id", shop.getId());
+        putIfNotNull(hash, "name", shop.getName());
+        putIfNotNull(hash, "typeId", shop.getTypeId());
+        putIfNotNull(hash, "images", shop.getImages());
+        putIfNotNull(hash, "area", shop.getArea());
+        putIfNotNull(hash, "address", shop.getAddress());
+        putIfNotNull(hash, "x", shop.getX());
+        putIfNotNull(hash, "y", shop.getY());
+        putIfNotNull(hash, "avgPrice", shop.getAvgPrice());
+        putIfNotNull(hash, SOLD, shop.getSold());
+        putIfNotNull(hash, COMMENTS, shop.getComments());
+        putIfNotNull(hash, "score", shop.getScore());
+        putIfNotNull(hash, "openHours", shop.getOpenHours());
+        putIfNotNull(hash, "createTime", shop.getCreateTime());
+        putIfNotNull(hash, "updateTime", shop.getUpdateTime());
+        return hash;
+    }
+
+    private static Shop fromHash(Map<String, String> hash) {
+        Shop shop = new Shop();
+        if (hash.containsKey(NULL_FIELD)) {
+            return shop;
+        }
+        String v;
+        if ((v = hash.get("id")) != null) shop.setId(Long.valueOf(v));
+        shop.setName(hash.get("name"));
+        if ((v = hash.get("typeId")) != null) shop.setTypeId(Long.valueOf(v));
+        shop.setImages(hash.get("images"));
+        shop.setArea(hash.get("area"));
+        shop.setAddress(hash.get("address"));
+        if ((v = hash.get("x")) != null) shop.setX(Double.valueOf(v));
+        if ((v = hash.get("y")) != null) shop.setY(Double.valueOf(v));
+        if ((v = hash.get("avgPrice")) != null) shop.setAvgPrice(Long.valueOf(v));
+        if ((v = hash.get(SOLD)) != null) shop.setSold(Integer.valueOf(v));
+        if ((v = hash.get(COMMENTS)) != null) shop.setComments(Integer.valueOf(v));
+        if ((v = hash.get("score")) != null) shop.setScore(Integer.valueOf(v));
+        shop.setOpenHours(hash.get("openHours"));
+        if (StrUtil.isNotBlank(v = hash.get("createTime"))) shop.setCreateTime(LocalDateTime.parse(v));
+        if (StrUtil.isNotBlank(v = hash.get("updateTime"))) shop.setUpdateTime(LocalDateTime.parse(v));
+        return shop;
+    }
+
+    private static void putIfNotNull(Map<String, String> hash, String field, Object value) {
+        if (value != null) {
+            hash.put(field, value.toString());
+        }
+    }
+}
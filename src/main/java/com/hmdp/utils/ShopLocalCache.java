@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//店铺的一级缓存（进程内），挡在Redis的 cache:shop: 前面
+//每个条目最多活到它在Redis里的逻辑过期时间，不会在Redis重建以后还继续返回逻辑上已经过期的店铺
+@Component
+public class ShopLocalCache implements ShopChangeListener {
+
+    /**
+     * 按估算的字节数限制容量，超出后由Caffeine淘汰
+     */
+    @Value("${hmdp.cache.shop.local.max-weight:16777216}")
+    private long maxWeight;
+
+    /**
+     * 兜底的过期时间，防止漏掉失效广播后一直读到旧数据
+     */
+    @Value("${hmdp.cache.shop.local.expire-seconds:60}")
+    private long expireSeconds;
+
+    private Cache<Long, Entry> cache;
+
+    //二级缓存（Redis）的命中统计
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder l2Misses = new LongAdder();
+    //旁路缓存的提前刷新次数和真正未命中（查数据库）的次数
+    private final LongAdder earlyRefreshes = new LongAdder();
+    private final LongAdder hardMisses = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Long id, Entry entry) -> weigh(entry.shop))
+                .expireAfter(new Expiry<Long, Entry>() {
+                    @Override
+                    public long expireAfterCreate(Long id, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long id, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long id, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public Shop get(Long id) {
+        Entry entry = cache.getIfPresent(id);
+        return entry == null ? null : entry.shop;
+    }
+
+    /**
+     * 放入本地缓存，存活时间取 兜底过期时间 和 离逻辑过期还剩的时间 中较小的，已经过期的不放并清掉旧的
+     *
+     * @param expireTime 逻辑过期时间，null表示没有（旁路缓存写入的）
+     */
+    public void put(Long id, Shop shop, LocalDateTime expireTime) {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(expireSeconds);
+        if (expireTime != null) {
+            ttlNanos = Math.min(ttlNanos, Duration.between(LocalDateTime.now(), expireTime).toNanos());
+        }
+        if (shop == null || ttlNanos <= 0) {
+            cache.invalidate(id);
+            return;
+        }
+        cache.put(id, new Entry(shop, ttlNanos));
+    }
+
+    public void invalidate(Long id) {
+        cache.invalidate(id);
+    }
+
+    public void recordL2Hit() {
+        l2Hits.increment();
+    }
+
+    public void recordL2Miss() {
+        l2Misses.increment();
+    }
+
+    public void recordEarlyRefresh() {
+        earlyRefreshes.increment();
+    }
+
+    public void recordHardMiss() {
+        hardMisses.increment();
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        invalidate(shopId);
+    }
+
+    /**
+     * 一二级缓存的命中情况
+     */
+    public Map<String, Object> stats() {
+        CacheStats l1 = cache.stats();
+        long hits = l2Hits.sum();
+        long misses = l2Misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("l1Size", cache.estimatedSize());
+        stats.put("l1HitCount", l1.hitCount());
+        stats.put("l1MissCount", l1.missCount());
+        stats.put("l1HitRate", l1.hitRate());
+        stats.put("l1EvictionCount", l1.evictionCount());
+        stats.put("l2HitCount", hits);
+        stats.put("l2MissCount", misses);
+        stats.put("l2HitRate", hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+        stats.put("earlyRefreshCount", earlyRefreshes.sum());
+        stats.put("hardMissCount", hardMisses.sum());
+        return stats;
+    }
+
+    //粗略估算一个店铺对象占用的字节数：对象头和数值字段按固定值算，字符串按字符数算
+    private static int weigh(Shop shop) {
+        int weight = 160;
+        weight += length(shop.getName()) + length(shop.getImages()) + length(shop.getArea())
+                + length(shop.getAddress()) + length(shop.getOpenHours());
+        return weight;
+    }
+
+    private static class Entry {
+        private final Shop shop;
+        private final long ttlNanos;
+
+        Entry(Shop shop, long ttlNanos) {
+            this.shop = shop;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+}
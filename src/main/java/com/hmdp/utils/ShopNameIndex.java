@@ -0,0 +1,264 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 店铺名称的n-gram倒排索引，代替 LIKE '%name%' 的全表扫描
+ * 每个字和相邻两个字都建一条倒排列表（{@link PostingList}压缩存储），查询时取关键字的所有二元组求交集，
+ * 再用原文校验一遍，按评分、销量排序
+ */
+@Component
+public class ShopNameIndex extends AbstractShopIndex {
+
+    private static final ExecutorService NAME_INDEX_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "name", "area", "address", "score", "sold"};
+
+    /**
+     * 是否把商圈和地址也加入索引
+     */
+    @Value("${hmdp.shop.search.include-address:false}")
+    private boolean includeAddress;
+
+    @Value("${hmdp.shop.search.batch-size:1000}")
+    private int batchSize;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    private volatile Map<String, byte[]> postings = new ConcurrentHashMap<>();
+    private volatile Map<Long, Doc> docs = new ConcurrentHashMap<>();
+
+    public ShopNameIndex() {
+        super("店铺名称索引");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        NAME_INDEX_EXECUTOR.submit(this::rebuild);
+    }
+
+    /**
+     * 哈希缓存模式下销量的变化不会广播，定时全量重建一次让排序跟上
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.search.rebuild-ms:600000}",
+            fixedDelayString = "${hmdp.shop.search.rebuild-ms:600000}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    /**
+     * 流式扫描tb_shop，按id升序读，倒排列表天然有序，不需要再排序
+     */
+    @Override
+    protected long build() {
+        Map<String, LongBuffer> buffers = new HashMap<>();
+        Map<Long, Doc> newDocs = new ConcurrentHashMap<>();
+        long count = shopScanner.scan(batchSize, COLUMNS, shops -> {
+            for (Shop shop : shops) {
+                Doc doc = toDoc(shop);
+                newDocs.put(shop.getId(), doc);
+                for (String gram : grams(doc.text)) {
+                    buffers.computeIfAbsent(gram, k -> new LongBuffer()).add(shop.getId());
+                }
+            }
+        });
+        Map<String, byte[]> newPostings = new ConcurrentHashMap<>(buffers.size() * 2);
+        buffers.forEach((gram, buffer) -> newPostings.put(gram, PostingList.encode(buffer.values, buffer.n)));
+        synchronized (this) {
+            postings = newPostings;
+            docs = newDocs;
+        }
+        return count;
+    }
+
+    //只改动新旧文本有差异的词条
+    @Override
+    protected synchronized void apply(Long shopId, Shop shop) {
+        Doc old = docs.get(shopId);
+        Doc doc = shop == null ? null : toDoc(shop);
+        Set<String> oldGrams = old == null ? Collections.emptySet() : grams(old.text);
+        Set<String> newGrams = doc == null ? Collections.emptySet() : grams(doc.text);
+        for (String gram : oldGrams) {
+            if (!newGrams.contains(gram)) {
+                postings.computeIfPresent(gram, (k, list) -> {
+                    byte[] removed = PostingList.remove(list, shopId);
+                    return PostingList.size(removed) == 0 ? null : removed;
+                });
+            }
+        }
+        for (String gram : newGrams) {
+            if (!oldGrams.contains(gram)) {
+                postings.merge(gram, PostingList.add(PostingList.EMPTY, shopId), (list, ignore) -> PostingList.add(list, shopId));
+            }
+        }
+        if (doc == null) {
+            docs.remove(shopId);
+        } else {
+            docs.put(shopId, doc);
+        }
+    }
+
+    /**
+     * 搜索店铺
+     *
+     * @param keyword 关键字
+     * @param from    跳过的条数
+     * @param size    返回的条数
+     * @return 按评分、销量由高到低排序的店铺id
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        String query = normalize(keyword);
+        if (query.isEmpty() || from < 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        // 1、取出关键字所有n-gram的倒排列表，一个不存在就说明没有结果
+        Set<String> queryGrams = query.codePointCount(0, query.length()) == 1
+                ? Collections.singleton(query) : bigrams(query);
+        List<byte[]> lists = new ArrayList<>(queryGrams.size());
+        for (String gram : queryGrams) {
+            byte[] list = postings.get(gram);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            lists.add(list);
+        }
+        // 2、从最短的列表开始求交集
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        long[] candidates = PostingList.decode(lists.get(0));
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = PostingList.intersect(candidates, PostingList.decode(lists.get(i)));
+        }
+        if (from >= candidates.length) {
+            return Collections.emptyList();
+        }
+        // 3、二元组都命中不代表连续出现，用原文再校验一遍；只保留排在前 from+size 的，堆顶是其中排名最后的
+        int limit = (int) Math.min((long) from + size, candidates.length);
+        PriorityQueue<Doc> top = new PriorityQueue<>(limit, RANK.reversed());
+        for (long id : candidates) {
+            Doc doc = docs.get(id);
+            if (doc == null || !doc.text.contains(query)) {
+                continue;
+            }
+            if (top.size() < limit) {
+                top.add(doc);
+            } else if (RANK.compare(doc, top.peek()) < 0) {
+                top.poll();
+                top.add(doc);
+            }
+        }
+        // 4、只对留下的排序后分页
+        List<Doc> hits = new ArrayList<>(top);
+        hits.sort(RANK);
+        List<Long> ids = new ArrayList<>(Math.max(0, Math.min(size, hits.size() - from)));
+        for (int i = from; i < hits.size(); i++) {
+            ids.add(hits.get(i).id);
+        }
+        return ids;
+    }
+
+    public Map<String, Object> stats() {
+        long bytes = 0, entries = 0;
+        for (byte[] list : postings.values()) {
+            bytes += list.length;
+            entries += PostingList.size(list);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", isReady());
+        stats.put("shops", docs.size());
+        stats.put("grams", postings.size());
+        stats.put("postings", entries);
+        stats.put("postingBytes", bytes);
+        stats.put("bytesPerPosting", entries == 0 ? 0 : (double) bytes / entries);
+        stats.put("lastRebuildMillis", getLastRebuildMillis());
+        stats.put("lastRebuildTime", getLastRebuildTime());
+        return stats;
+    }
+
+    private Doc toDoc(Shop shop) {
+        StringBuilder text = new StringBuilder(normalize(shop.getName()));
+        if (includeAddress) {
+            // 用换行隔开，避免跨字段拼出原本不存在的词
+            text.append('\n').append(normalize(shop.getArea())).append('\n').append(normalize(shop.getAddress()));
+        }
+        return new Doc(shop.getId(), text.toString(),
+                shop.getScore() == null ? 0 : shop.getScore(),
+                shop.getSold() == null ? 0 : shop.getSold());
+    }
+
+    private static String normalize(String s) {
+        return StrUtil.isBlank(s) ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    //单字 + 相邻两个字，跨越换行的不要
+    private static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        text.codePoints().filter(c -> c != '\n' && !Character.isWhitespace(c))
+                .forEach(c -> grams.add(new String(Character.toChars(c))));
+        grams.addAll(bigrams(text));
+        return grams;
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        int[] cps = text.codePoints().toArray();
+        for (int i = 0; i + 1 < cps.length; i++) {
+            if (cps[i] != '\n' && cps[i + 1] != '\n') {
+                grams.add(new String(cps, i, 2));
+            }
+        }
+        return grams;
+    }
+
+    private static final Comparator<Doc> RANK = Comparator.comparingInt((Doc d) -> d.score).reversed()
+            .thenComparing(Comparator.comparingInt((Doc d) -> d.sold).reversed())
+            .thenComparingLong(d -> d.id);
+
+    private static class Doc {
+        final long id;
+        final String text;
+        final int score;
+        final int sold;
+
+        Doc(long id, String text, int score, int sold) {
+            this.id = id;
+            this.text = text;
+            this.score = score;
+            this.sold = sold;
+        }
+    }
+
+    private static class LongBuffer {
+        long[] values = new long[8];
+        int n;
+
+        void add(long value) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = value;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 店铺营业时间位图：每家店96个刻钟用两个long表示，按店铺id直接下标访问（店铺id是自增的，比较稠密）
+ * 营业时间只在加载和修改时解析一次，判断是否营业只是一次位运算
+ */
+@Slf4j
+@Component
+public class ShopOpenHoursIndex extends AbstractShopIndex {
+
+    private static final ExecutorService OPEN_HOURS_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "open_hours"};
+
+    /**
+     * 店铺id上限，超过的不进索引，防止id很稀疏时数组过大
+     */
+    @Value("${hmdp.shop.open-hours.max-id:16777216}")
+    private int maxId;
+
+    @Value("${hmdp.shop.open-hours.batch-size:1000}")
+    private int batchSize;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    //下标 id*2 和 id*2+1 是这家店的两个long
+    private volatile long[] bits = new long[0];
+
+    public ShopOpenHoursIndex() {
+        super("店铺营业时间索引");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        OPEN_HOURS_EXECUTOR.submit(this::rebuild);
+    }
+
+    @Override
+    protected long build() {
+        long[][] built = {new long[0]};
+        long count = shopScanner.scan(batchSize, COLUMNS, shops -> {
+            for (Shop shop : shops) {
+                built[0] = set(built[0], shop.getId(), OpenHours.toBits(shop.getOpenHours()));
+            }
+        });
+        synchronized (this) {
+            bits = built[0];
+        }
+        return count;
+    }
+
+    @Override
+    protected void apply(Long shopId, Shop shop) {
+        long[] value = OpenHours.toBits(shop == null ? null : shop.getOpenHours());
+        synchronized (this) {
+            bits = set(bits, shopId, value);
+        }
+    }
+
+    /**
+     * 店铺在某个时刻是否营业
+     *
+     * @return 店铺不在索引里（不存在或者没有营业时间）时返回false
+     */
+    public boolean isOpen(long shopId, LocalTime time) {
+        long[] current = bits;
+        if (shopId <= 0 || shopId > maxId || shopId * 2 + 1 >= current.length) {
+            return false;
+        }
+        int i = (int) (shopId * 2);
+        return OpenHours.isOpen(current[i], current[i + 1], time);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", isReady());
+        stats.put("capacity", bits.length / 2);
+        stats.put("memoryBytes", bits.length * 8L);
+        stats.put("lastRebuildMillis", getLastRebuildMillis());
+        stats.put("lastRebuildTime", getLastRebuildTime());
+        return stats;
+    }
+
+    //需要扩容时按1.5倍复制一份，写入在复制后的数组上，读的线程不会看到中间状态的数组
+    private long[] set(long[] array, Long shopId, long[] value) {
+        if (shopId == null || shopId <= 0 || shopId > maxId) {
+            log.warn("店铺id超出营业时间索引范围, id={}", shopId);
+            return array;
+        }
+        int i = (int) (shopId * 2);
+        if (i + 1 >= array.length) {
+            array = Arrays.copyOf(array, Math.max(i + 2, array.length + (array.length >> 1)));
+        }
+        array[i] = value[0];
+        array[i + 1] = value[1];
+        return array;
+    }
+}
@@ -0,0 +1,295 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_KEY;
+
+/**
+ * 店铺排行榜：每个类型、每个指标一个ZSET shop:rank:{metric}:{typeId}，成员是店铺id，分数是指标值
+ * 启动时和定时全量构建（写到临时key再RENAME，构建过程中不影响读），平时随计数器和店铺修改增量更新
+ * 构建期间的增量更新打在正式key上，RENAME时会被覆盖，所以替换之后把构建期间改过的店铺按数据库再同步一遍
+ */
+@Slf4j
+@Component
+public class ShopRankBoard {
+
+    public static final String SCORE = "score";
+    public static final String SOLD = "sold";
+    public static final String COMMENTS = "comments";
+
+    /**
+     * 支持的排序指标，和tb_shop的列名一致
+     */
+    public static final List<String> METRICS = Collections.unmodifiableList(Arrays.asList(SCORE, SOLD, COMMENTS));
+
+    private static final ExecutorService RANK_BUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "type_id", SCORE, SOLD, COMMENTS};
+
+    @Value("${hmdp.shop.rank.batch-size:1000}")
+    private int batchSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    //本节点在构建期间增量更新过的店铺，不在构建时为null
+    private volatile Set<Long> changedDuringRebuild;
+    private volatile long lastCount;
+    private volatile long lastCostMillis;
+    private volatile LocalDateTime lastFinishTime;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildAsync();
+    }
+
+    /**
+     * 在构建线程里全量构建
+     *
+     * @return 已经有构建任务在跑时返回false
+     */
+    public boolean rebuildAsync() {
+        if (running.get()) {
+            return false;
+        }
+        RANK_BUILD_EXECUTOR.submit(this::rebuild);
+        return true;
+    }
+
+    /**
+     * 定时全量构建，修正增量更新可能漏掉的变化
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.rank.rebuild-ms:3600000}",
+            fixedDelayString = "${hmdp.shop.rank.rebuild-ms:3600000}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    /**
+     * 全量构建
+     *
+     * @return 已经有构建任务在跑时返回false
+     */
+    public boolean rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        // 临时key带上随机后缀，多个节点同时构建也不会互相覆盖
+        String suffix = ":building:" + UUID.randomUUID().toString(true);
+        changedDuringRebuild = ConcurrentHashMap.newKeySet();
+        try {
+            long begin = System.currentTimeMillis();
+            Set<Long> builtTypes = new HashSet<>();
+            // 1、分批扫描，每批一次管道写入临时key
+            long count = shopScanner.scan(batchSize, COLUMNS, shops ->
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (Shop shop : shops) {
+                            if (shop.getTypeId() == null) {
+                                continue;
+                            }
+                            builtTypes.add(shop.getTypeId());
+                            byte[] member = member(shop.getId());
+                            for (String metric : METRICS) {
+                                connection.zAdd(bytes(key(metric, shop.getTypeId()) + suffix), value(shop, metric), member);
+                            }
+                        }
+                        return null;
+                    }));
+            // 2、临时key替换正式key，没有店铺的类型删掉旧榜单
+            Set<Long> typeIds = new HashSet<>(builtTypes);
+            typeIds.addAll(allTypeIds());
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long typeId : typeIds) {
+                    for (String metric : METRICS) {
+                        byte[] key = bytes(key(metric, typeId));
+                        if (builtTypes.contains(typeId)) {
+                            connection.rename(bytes(key(metric, typeId) + suffix), key);
+                        } else {
+                            connection.del(key);
+                        }
+                    }
+                }
+                return null;
+            });
+            // 3、构建期间的增量更新被RENAME覆盖了，重新同步：本节点记下的店铺，加上构建开始以后数据库里改过的（包括其他节点改的）
+            resyncChangedSince(begin);
+            lastCount = count;
+            lastCostMillis = System.currentTimeMillis() - begin;
+            lastFinishTime = LocalDateTime.now();
+            log.info("店铺排行榜构建完成, 店铺数={}, 耗时={}ms", count, lastCostMillis);
+            return true;
+        } catch (Exception e) {
+            log.error("店铺排行榜构建失败", e);
+            return false;
+        } finally {
+            changedDuringRebuild = null;
+            running.set(false);
+        }
+    }
+
+    //update_time按数据库时钟比较，只用本地算出的构建耗时，不受节点时钟差的影响；多算1秒防止边界上漏掉
+    private void resyncChangedSince(long begin) {
+        long seconds = (System.currentTimeMillis() - begin) / 1000 + 1;
+        Set<Long> shopIds = new HashSet<>(changedDuringRebuild);
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select(COLUMNS)
+                .apply("update_time >= DATE_SUB(NOW(), INTERVAL {0} SECOND)", seconds));
+        Set<Long> loaded = new HashSet<>();
+        for (Shop shop : shops) {
+            shopIds.add(shop.getId());
+            loaded.add(shop.getId());
+        }
+        // 本地记下但不在上面结果里的，按id再查一次，查不到说明已经删除
+        Set<Long> rest = new HashSet<>(shopIds);
+        rest.removeAll(loaded);
+        if (!rest.isEmpty()) {
+            shops.addAll(shopMapper.selectList(new QueryWrapper<Shop>().select(COLUMNS).in("id", rest)));
+        }
+        sync(shopIds, shops);
+        log.info("排行榜构建期间变更的店铺已重新同步, 店铺数={}", shopIds.size());
+    }
+
+    /**
+     * 计数器增量更新
+     */
+    public void increment(Long shopId, Long typeId, String metric, long delta) {
+        recordChange(shopId);
+        stringRedisTemplate.opsForZSet().incrementScore(key(metric, typeId), shopId.toString(), delta);
+    }
+
+    /**
+     * 同步一批店铺：先从所有类型的榜单里删掉，再按最新数据加到当前类型
+     *
+     * @param shopIds 需要同步的店铺id
+     * @param shops   这些店铺在数据库里的最新数据，已经删除的店铺不在里面
+     */
+    public void sync(Collection<Long> shopIds, Collection<Shop> shops) {
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        shopIds.forEach(this::recordChange);
+        List<Long> typeIds = allTypeIds();
+        byte[][] members = shopIds.stream().map(ShopRankBoard::member).toArray(byte[][]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long typeId : typeIds) {
+                for (String metric : METRICS) {
+                    connection.zRem(bytes(key(metric, typeId)), members);
+                }
+            }
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null) {
+                    continue;
+                }
+                for (String metric : METRICS) {
+                    connection.zAdd(bytes(key(metric, shop.getTypeId())), value(shop, metric), member(shop.getId()));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 按指标由高到低分页
+     *
+     * @return 这一页的店铺id
+     */
+    public List<Long> page(Long typeId, String metric, int from, int size) {
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(key(metric, typeId), from, from + size - 1L);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        return ids;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running.get());
+        stats.put("lastCount", lastCount);
+        stats.put("lastCostMillis", lastCostMillis);
+        stats.put("lastFinishTime", lastFinishTime);
+        return stats;
+    }
+
+    private void recordChange(Long shopId) {
+        Set<Long> changed = changedDuringRebuild;
+        if (changed != null) {
+            changed.add(shopId);
+        }
+    }
+
+    private List<Long> allTypeIds() {
+        List<Long> typeIds = new ArrayList<>();
+        for (ShopType type : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+            typeIds.add(type.getId());
+        }
+        return typeIds;
+    }
+
+    private static final Map<String, Function<Shop, Integer>> GETTERS = new LinkedHashMap<>();
+    static {
+        GETTERS.put(SCORE, Shop::getScore);
+        GETTERS.put(SOLD, Shop::getSold);
+        GETTERS.put(COMMENTS, Shop::getComments);
+    }
+
+    private static double value(Shop shop, String metric) {
+        Integer value = GETTERS.get(metric).apply(shop);
+        return value == null ? 0 : value;
+    }
+
+    private static String key(String metric, Long typeId) {
+        return SHOP_RANK_KEY + metric + ":" + typeId;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] member(Long shopId) {
+        return shopId.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
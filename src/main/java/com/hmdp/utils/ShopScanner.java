@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.function.Consumer;
+
+//按主键游标分批扫描tb_shop，避免一次性把整张表读进内存，也避免OFFSET越翻越慢
+@Component
+public class ShopScanner {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 扫描全部店铺
+     *
+     * @param batchSize 每批条数
+     * @param consumer  每一批的处理逻辑
+     * @return 扫描到的总条数
+     */
+    public long scan(int batchSize, Consumer<List<Shop>> consumer) {
+        return scan(batchSize, null, consumer);
+    }
+
+    /**
+     * 扫描店铺，只查询指定的列
+     *
+     * @param batchSize 每批条数
+     * @param columns   要查询的列，为空时查全部列（id总是会查）
+     * @param consumer  每一批的处理逻辑
+     * @return 扫描到的总条数
+     */
+    public long scan(int batchSize, String[] columns, Consumer<List<Shop>> consumer) {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            QueryWrapper<Shop> wrapper = new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize);
+            if (columns != null && columns.length > 0) {
+                wrapper.select(withId(columns));
+            }
+            List<Shop> shops = shopMapper.selectList(wrapper);
+            if (shops.isEmpty()) {
+                return total;
+            }
+            consumer.accept(shops);
+            total += shops.size();
+            if (shops.size() < batchSize) {
+                return total;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
+    private static String[] withId(String[] columns) {
+        for (String column : columns) {
+            if ("id".equals(column)) {
+                return columns;
+            }
+        }
+        String[] result = new String[columns.length + 1];
+        result[0] = "id";
+        System.arraycopy(columns, 0, result, 1, columns.length);
+        return result;
+    }
+}
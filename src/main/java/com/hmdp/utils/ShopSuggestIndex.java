@@ -0,0 +1,403 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopSuggestion;
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 搜索框联想：店铺名称和商圈按前缀匹配，返回热度最高的k个
+ * 联想词按前缀排好序放在数组里，前缀对应数组里连续的一段，再用线段树在这一段里按热度取前k个，
+ * 查询是 O(log n + k log k)。店铺修改先记到待合并的修改里，攒够了再在后台合并成新的数组
+ */
+@Component
+public class ShopSuggestIndex extends AbstractShopIndex {
+
+    private static final ExecutorService SUGGEST_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String[] COLUMNS = {"id", "name", "area", "score", "sold"};
+
+    //待合并的修改里表示这个联想词已经删除
+    private static final Entry DELETED = new Entry("", "", null);
+
+    @Value("${hmdp.shop.suggest.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 待合并的修改超过这个数就合并成新的数组
+     */
+    @Value("${hmdp.shop.suggest.max-pending:1000}")
+    private int maxPending;
+
+    @Resource
+    private ShopScanner shopScanner;
+
+    //当前的全部店铺和商圈热度，只在持有this锁时修改，合并时从这里生成新数组
+    private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+    private final Map<String, Area> areas = new ConcurrentHashMap<>();
+
+    private volatile State state = new State(Snapshot.build(new ArrayList<>()));
+
+    private final AtomicBoolean compactScheduled = new AtomicBoolean(false);
+
+    private volatile long lastCompactMillis;
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+    private final LongAccumulator maxQueryNanos = new LongAccumulator(Math::max, 0);
+
+    public ShopSuggestIndex() {
+        super("店铺联想索引");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        SUGGEST_EXECUTOR.submit(this::rebuild);
+    }
+
+    /**
+     * 哈希缓存模式下销量的变化不会广播，定时全量重建一次让热度跟上
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.suggest.rebuild-ms:600000}",
+            fixedDelayString = "${hmdp.shop.suggest.rebuild-ms:600000}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    @Override
+    protected long build() {
+        Map<Long, Doc> newDocs = new HashMap<>();
+        long count = shopScanner.scan(batchSize, COLUMNS, shops -> {
+            for (Shop shop : shops) {
+                newDocs.put(shop.getId(), toDoc(shop));
+            }
+        });
+        synchronized (this) {
+            docs.clear();
+            areas.clear();
+            newDocs.values().forEach(doc -> addArea(doc.area, 1, doc.weight));
+            docs.putAll(newDocs);
+            state = new State(buildSnapshot());
+        }
+        return count;
+    }
+
+    @Override
+    protected void apply(Long shopId, Shop shop) {
+        put(shopId, shop == null ? null : toDoc(shop));
+        if (state.pending.size() > maxPending && compactScheduled.compareAndSet(false, true)) {
+            SUGGEST_EXECUTOR.submit(this::compact);
+        }
+    }
+
+    //更新店铺和它新旧两个商圈的联想词，写到待合并的修改里
+    private synchronized void put(Long shopId, Doc doc) {
+        Doc old = doc == null ? docs.remove(shopId) : docs.put(shopId, doc);
+        if (old != null) {
+            addArea(old.area, -1, -old.weight);
+        }
+        if (doc != null) {
+            addArea(doc.area, 1, doc.weight);
+        }
+        Map<String, Entry> pending = state.pending;
+        pending.put(shopKey(shopId), doc == null ? DELETED : shopEntry(doc));
+        if (old != null && StrUtil.isNotBlank(old.area)) {
+            pending.put(areaKey(old.area), areaEntry(old.area));
+        }
+        if (doc != null && StrUtil.isNotBlank(doc.area)) {
+            pending.put(areaKey(doc.area), areaEntry(doc.area));
+        }
+    }
+
+    /**
+     * 把待合并的修改合并成新的数组，读的线程在切换前后看到的都是完整的状态
+     */
+    public void compact() {
+        compactScheduled.set(false);
+        long begin = System.currentTimeMillis();
+        synchronized (this) {
+            state = new State(buildSnapshot());
+        }
+        compactions.increment();
+        lastCompactMillis = System.currentTimeMillis() - begin;
+    }
+
+    /**
+     * 前缀联想
+     *
+     * @param prefix 用户已经输入的内容
+     * @param k      最多返回多少个
+     * @return 按热度由高到低排序
+     */
+    public List<ShopSuggestion> suggest(String prefix, int k) {
+        String p = normalize(prefix);
+        if (p.isEmpty() || k <= 0) {
+            return Collections.emptyList();
+        }
+        long begin = System.nanoTime();
+        State s = state;
+        Snapshot base = s.base;
+        // 1、二分找到前缀对应的区间
+        int lo = lowerBound(base.keys, p);
+        int hi = lowerBound(base.keys, p + Character.MAX_VALUE);
+        // 2、每次从堆里取出热度最高的区间最大值，再把区间从它两边拆开放回去，跳过有待合并修改的
+        List<Entry> hits = new ArrayList<>(k);
+        PriorityQueue<int[]> heap = new PriorityQueue<>((a, b) -> base.compare(a[2], b[2]));
+        if (lo < hi) {
+            heap.add(new int[]{lo, hi, base.argmax(lo, hi)});
+        }
+        while (!heap.isEmpty() && hits.size() < k) {
+            int[] range = heap.poll();
+            int i = range[2];
+            if (!s.pending.containsKey(base.entries[i].id)) {
+                hits.add(base.entries[i]);
+            }
+            if (range[0] < i) {
+                heap.add(new int[]{range[0], i, base.argmax(range[0], i)});
+            }
+            if (i + 1 < range[1]) {
+                heap.add(new int[]{i + 1, range[1], base.argmax(i + 1, range[1])});
+            }
+        }
+        // 3、待合并的修改不多，逐个匹配后一起排序
+        for (Entry entry : s.pending.values()) {
+            if (entry != DELETED && entry.key.startsWith(p)) {
+                hits.add(entry);
+            }
+        }
+        hits.sort(RANK);
+        List<ShopSuggestion> result = new ArrayList<>(Math.min(k, hits.size()));
+        for (int i = 0; i < hits.size() && i < k; i++) {
+            result.add(hits.get(i).value);
+        }
+        long cost = System.nanoTime() - begin;
+        queries.increment();
+        queryNanos.add(cost);
+        maxQueryNanos.accumulate(cost);
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        State s = state;
+        long count = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", isReady());
+        stats.put("shops", docs.size());
+        stats.put("areas", areas.size());
+        stats.put("entries", s.base.entries.length);
+        stats.put("pending", s.pending.size());
+        stats.put("estimatedBytes", s.base.estimatedBytes);
+        stats.put("queries", count);
+        stats.put("avgQueryMicros", count == 0 ? 0 : queryNanos.sum() / 1000.0 / count);
+        stats.put("maxQueryMicros", maxQueryNanos.get() / 1000.0);
+        stats.put("compactions", compactions.sum());
+        stats.put("lastCompactMillis", lastCompactMillis);
+        stats.put("lastRebuildMillis", getLastRebuildMillis());
+        stats.put("lastRebuildTime", getLastRebuildTime());
+        return stats;
+    }
+
+    private Snapshot buildSnapshot() {
+        List<Entry> entries = new ArrayList<>(docs.size() + areas.size());
+        for (Doc doc : docs.values()) {
+            if (StrUtil.isNotBlank(doc.name)) {
+                entries.add(shopEntry(doc));
+            }
+        }
+        for (String area : areas.keySet()) {
+            entries.add(areaEntry(area));
+        }
+        return Snapshot.build(entries);
+    }
+
+    private void addArea(String area, int count, long weight) {
+        if (StrUtil.isBlank(area)) {
+            return;
+        }
+        Area a = areas.computeIfAbsent(area, k -> new Area());
+        a.count += count;
+        a.weight += weight;
+        if (a.count <= 0) {
+            areas.remove(area);
+        }
+    }
+
+    private Entry areaEntry(String area) {
+        Area a = areas.get(area);
+        return a == null ? DELETED
+                : new Entry(areaKey(area), normalize(area), new ShopSuggestion(ShopSuggestion.AREA, area, null, a.weight));
+    }
+
+    private static Entry shopEntry(Doc doc) {
+        if (StrUtil.isBlank(doc.name)) {
+            return DELETED;
+        }
+        return new Entry(shopKey(doc.id), normalize(doc.name),
+                new ShopSuggestion(ShopSuggestion.SHOP, doc.name, doc.id, doc.weight));
+    }
+
+    private static Doc toDoc(Shop shop) {
+        long sold = shop.getSold() == null ? 0 : shop.getSold();
+        long score = shop.getScore() == null ? 0 : shop.getScore();
+        // 评分是0~50，乘100后先比销量再比评分
+        return new Doc(shop.getId(), StrUtil.trim(shop.getName()), StrUtil.trim(shop.getArea()), sold * 100 + score);
+    }
+
+    private static String shopKey(Long shopId) {
+        return "s:" + shopId;
+    }
+
+    private static String areaKey(String area) {
+        return "a:" + area;
+    }
+
+    private static String normalize(String s) {
+        return StrUtil.isBlank(s) ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    //第一个不小于key的下标
+    private static int lowerBound(String[] keys, String key) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static final Comparator<Entry> RANK = Comparator.comparingLong((Entry e) -> e.value.getWeight()).reversed()
+            .thenComparing(e -> e.key)
+            .thenComparing(e -> e.id);
+
+    /**
+     * 排好序的联想词数组和按热度取最大值的线段树，构建后不再修改
+     */
+    private static class Snapshot {
+        final Entry[] entries;
+        final String[] keys;
+        //tree[n+i]=i，内部节点存两个子节点里热度更高的下标
+        final int[] tree;
+        final long estimatedBytes;
+
+        private Snapshot(Entry[] entries) {
+            this.entries = entries;
+            int n = entries.length;
+            this.keys = new String[n];
+            this.tree = new int[2 * n];
+            long bytes = 0;
+            for (int i = 0; i < n; i++) {
+                keys[i] = entries[i].key;
+                tree[n + i] = i;
+                // 粗略估算：Entry、ShopSuggestion和三个字符串的对象头，加上字符按2字节算
+                bytes += 160 + 2L * (entries[i].id.length() + entries[i].key.length() + entries[i].value.getText().length());
+            }
+            for (int i = n - 1; i > 0; i--) {
+                tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+            }
+            this.estimatedBytes = bytes + 8L * n + 4L * tree.length;
+        }
+
+        static Snapshot build(List<Entry> entries) {
+            entries.sort(Comparator.comparing((Entry e) -> e.key).thenComparing(e -> e.id));
+            return new Snapshot(entries.toArray(new Entry[0]));
+        }
+
+        //[from, to) 里热度最高的下标
+        int argmax(int from, int to) {
+            int n = entries.length;
+            int best = -1;
+            for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        //热度高的排前面，一样时下标小的排前面
+        int compare(int a, int b) {
+            int c = Long.compare(entries[b].value.getWeight(), entries[a].value.getWeight());
+            return c != 0 ? c : Integer.compare(a, b);
+        }
+
+        private int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            return compare(a, b) <= 0 ? a : b;
+        }
+    }
+
+    /**
+     * 一个快照加上它之后的修改，合并时整体替换
+     */
+    private static class State {
+        final Snapshot base;
+        //联想词id -> 最新的联想词，DELETED表示已经删除
+        final Map<String, Entry> pending = new ConcurrentHashMap<>();
+
+        State(Snapshot base) {
+            this.base = base;
+        }
+    }
+
+    private static class Entry {
+        //s:店铺id 或 a:商圈
+        final String id;
+        //小写后的文字，用来前缀匹配
+        final String key;
+        final ShopSuggestion value;
+
+        Entry(String id, String key, ShopSuggestion value) {
+            this.id = id;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class Doc {
+        final long id;
+        final String name;
+        final String area;
+        final long weight;
+
+        Doc(long id, String name, String area, long weight) {
+            this.id = id;
+            this.name = name;
+            this.area = area;
+            this.weight = weight;
+        }
+    }
+
+    private static class Area {
+        int count;
+        long weight;
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TOPIC;
+
+/**
+ * 秒杀券售罄标记：Lua脚本返回库存不足时在本节点记下，并通过发布订阅通知其他节点，
+ * 之后这张券的秒杀请求直接在本地失败，不再访问Redis。补库存时广播清除标记
+ * 标记带有效期，广播丢了或者先后乱了，最多错这么久
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+
+    private static final String SOLD_OUT = "1";
+    private static final String RESTOCK = "0";
+
+    @Value("${hmdp.seckill.sold-out.ttl-ms:10000}")
+    private long ttlMillis;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //券id -> 标记过期的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder published = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            // 消息格式 1:券id 表示售罄，0:券id 表示补了库存
+            String[] body = new String(message.getBody(), StandardCharsets.UTF_8).split(":", 2);
+            Long voucherId = Long.valueOf(body[1]);
+            if (SOLD_OUT.equals(body[0])) {
+                soldOut.put(voucherId, System.currentTimeMillis() + ttlMillis);
+            } else {
+                soldOut.remove(voucherId);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_TOPIC));
+    }
+
+    /**
+     * 本节点是否已经知道这张券售罄了，是的话计入拒绝次数
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            // 过期了放一个请求去Redis确认，还是售罄的话会重新标记
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        rejected.increment();
+        return true;
+    }
+
+    /**
+     * 标记售罄，本节点之前没有标记时才广播，避免售罄瞬间的大量请求各发一次
+     */
+    public void markSoldOut(Long voucherId) {
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+        Long old = soldOut.put(voucherId, expireAt);
+        if (old == null || old < System.currentTimeMillis()) {
+            publish(SOLD_OUT, voucherId);
+        }
+    }
+
+    /**
+     * 补库存后清除所有节点的标记
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(RESTOCK, voucherId);
+    }
+
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("soldOut", soldOut.entrySet().stream()
+                .filter(e -> e.getValue() >= now).map(Map.Entry::getKey).toArray());
+        stats.put("rejected", rejected.sum());
+        stats.put("published", published.sum());
+        stats.put("ttlMillis", ttlMillis);
+        return stats;
+    }
+
+    private void publish(String type, Long voucherId) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_TOPIC, type + ":" + voucherId);
+            published.increment();
+        } catch (Exception e) {
+            // 广播失败只影响其他节点能不能提前拦截，不影响正确性
+            log.warn("广播秒杀券售罄状态失败, voucherId={}", voucherId, e);
+        }
+    }
+}
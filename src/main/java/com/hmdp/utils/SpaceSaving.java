@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving 流式 top-K 计数：最多保留capacity个计数器，满了以后新来的词顶替计数最小的那个，
+ * 并继承它的计数作为误差。出现次数超过 总数/capacity 的词一定在里面，内存和词的种类无关
+ */
+public class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>(
+            Comparator.comparingLong((Counter c) -> c.count).thenComparing(c -> c.key));
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void offer(String key) {
+        offer(key, 1);
+    }
+
+    public synchronized void offer(String key, long increment) {
+        total += increment;
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(key, 0, 0);
+            } else {
+                // 顶替计数最小的词，它的计数就是新词可能被多算的上限
+                Counter min = byCount.pollFirst();
+                counters.remove(min.key);
+                counter = new Counter(key, min.count, min.count);
+            }
+            counters.put(key, counter);
+        } else {
+            byCount.remove(counter);
+        }
+        counter.count += increment;
+        byCount.add(counter);
+    }
+
+    /**
+     * 计数最大的n个，按计数由高到低
+     */
+    public synchronized List<Counter> top(int n) {
+        List<Counter> top = new ArrayList<>(Math.min(n, counters.size()));
+        Iterator<Counter> it = byCount.descendingIterator();
+        while (it.hasNext() && top.size() < n) {
+            Counter c = it.next();
+            top.add(new Counter(c.key, c.count, c.error));
+        }
+        return top;
+    }
+
+    /**
+     * 取出全部计数并清空，用于按时间窗口上报
+     */
+    public synchronized List<Counter> drain() {
+        List<Counter> all = new ArrayList<>(byCount.descendingSet());
+        counters.clear();
+        byCount.clear();
+        total = 0;
+        return all;
+    }
+
+    public synchronized int size() {
+        return counters.size();
+    }
+
+    public synchronized long total() {
+        return total;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public static class Counter {
+        private final String key;
+        private long count;
+        private final long error;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 估计的次数，不会少算
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 最多多算了多少次，count-error 是一定出现过的次数
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
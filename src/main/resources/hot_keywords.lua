@@ -0,0 +1,38 @@
+-- 合并一个节点的热搜词计数，并按经过的时间做指数衰减
+-- KEYS[1] 热搜词ZSET，KEYS[2] 上次衰减的时间
+-- ARGV[1] 当前时间(ms)，ARGV[2] 半衰期(ms)，ARGV[3] ZSET最多保留的词数，之后是 词1,次数1,词2,次数2...
+local now = tonumber(ARGV[1])
+local halfLife = tonumber(ARGV[2])
+local maxSize = tonumber(ARGV[3])
+
+-- 1、所有节点共用一个衰减时间，不管多少个节点上报，同一段时间只衰减一次
+local last = tonumber(redis.call('GET', KEYS[2]) or now)
+if (now > last) then
+    local factor = math.pow(0.5, (now - last) / halfLife)
+    local members = redis.call('ZRANGE', KEYS[1], 0, -1, 'WITHSCORES')
+    for i = 1, #members, 2 do
+        local score = tonumber(members[i + 1]) * factor
+        if (score < 0.01) then
+            redis.call('ZREM', KEYS[1], members[i])
+        else
+            redis.call('ZADD', KEYS[1], score, members[i])
+        end
+    end
+end
+-- 节点之间时钟有偏差时不把时间往回拨
+if (now >= last) then
+    redis.call('SET', KEYS[2], now)
+end
+
+-- 2、累加这个节点的计数
+for i = 4, #ARGV, 2 do
+    redis.call('ZINCRBY', KEYS[1], ARGV[i + 1], ARGV[i])
+end
+
+-- 3、只保留分数最高的maxSize个
+local size = redis.call('ZCARD', KEYS[1])
+if (size > maxSize) then
+    redis.call('ZREMRANGEBYRANK', KEYS[1], 0, size - maxSize - 1)
+    size = maxSize
+end
+return size
@@ -3,33 +3,62 @@
 --- Created by Z.
 --- DateTime: 2025/1/14 22:32
 ---
---- Description 判断库存是否充足 && 判断用户是否已下单
+--- Description 判断库存是否充足 && 判断用户是否已下单 && 生成订单id && 订单写入消息队列
+--- 返回 '1' 库存不足，'2' 重复下单，其他是订单id（字符串，64位整数Lua的数字放不下）
 ---
+-- 库存的key
+local stockKey = KEYS[1];
+-- 已下单用户的key
+local orderKey = KEYS[2];
+-- 订单消息队列（Stream）的key
+local streamKey = KEYS[3];
+-- 订单id序列号计数器的key，和RedisIdWorker用的同一个
+local counterKey = KEYS[4];
 -- 优惠券id
 local voucherId = ARGV[1];
 -- 用户id
 local userId = ARGV[2];
+-- 订单id的时间戳部分
+local timestamp = tonumber(ARGV[3]);
 
--- 库存的key
-local stockKey = 'seckill:stock:' .. voucherId;
--- 订单key
-local orderKey = 'seckill:order:' .. voucherId;
-
--- 判断库存是否充足 get stockKey > 0 ?
-local stock = redis.call('GET', stockKey);
-if (tonumber(stock) <= 0) then
+-- 判断库存是否充足 get stockKey > 0 ? 库存还没写入Redis时也按库存不足处理
+local stock = tonumber(redis.call('GET', stockKey) or '0');
+if (stock <= 0) then
     -- 库存不足，返回1
-    return 1;
+    return '1';
 end
 
 -- 库存充足，判断用户是否已经下过单 SISMEMBER orderKey userId
 if (redis.call('SISMEMBER', orderKey, userId) == 1) then
     -- 用户已下单，返回2
-    return 2;
+    return '2';
 end
 
 -- 库存充足，没有下过单，扣库存、下单
 redis.call('INCRBY', stockKey, -1);
 redis.call('SADD', orderKey, userId);
--- 返回0，标识下单成功
-return 0;
+-- 有资格了才生成订单id：时间戳 << 32 | 序列号，和RedisIdWorker.nextId一样
+-- Lua的数字是double，只有53位精度，按十进制每7位一段分开算再拼成字符串
+local count = redis.call('INCR', counterKey);
+local hA = math.floor(timestamp / 1e7);
+local hB = timestamp - hA * 1e7;
+-- 2^32 = 429 * 1e7 + 4967296
+local t0 = hB * 4967296 + count;
+local c0 = math.floor(t0 / 1e7);
+local t1 = hA * 4967296 + hB * 429 + c0;
+local c1 = math.floor(t1 / 1e7);
+local t2 = hA * 429 + c1;
+local d0 = t0 - c0 * 1e7;
+local d1 = t1 - c1 * 1e7;
+local orderId;
+if (t2 > 0) then
+    orderId = string.format('%.0f%07d%07d', t2, d1, d0);
+elseif (d1 > 0) then
+    orderId = string.format('%.0f%07d', d1, d0);
+else
+    orderId = string.format('%.0f', d0);
+end
+-- 订单和扣库存在同一个脚本里写入Stream，扣了库存的订单不会丢 XADD streamKey * k1 v1 ...
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId);
+-- 返回订单id，标识下单成功
+return orderId;
@@ -0,0 +1,16 @@
+-- 撤销一个分片上待完成的订单：按需退回库存、删掉待完成记录、撤销一人一单的占位
+-- 记录已经不在（订单完成了或者已经撤销过）就什么都不做，重复调用不会多退库存
+-- KEYS[1] 库存分片，KEYS[2] 本分片待完成的订单，KEYS[3] 本分片已下单用户（可选）
+-- ARGV[1] 用户id，ARGV[2] 退回的库存数
+if (redis.call('HEXISTS', KEYS[2], ARGV[1]) == 0) then
+    return 0
+end
+local amount = tonumber(ARGV[2])
+if (amount > 0) then
+    redis.call('INCRBY', KEYS[1], amount)
+end
+redis.call('HDEL', KEYS[2], ARGV[1])
+if (KEYS[3]) then
+    redis.call('SREM', KEYS[3], ARGV[1])
+end
+return 1
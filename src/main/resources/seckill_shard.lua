@@ -0,0 +1,20 @@
+-- 分片库存模式下在用户的主分片上秒杀：判断一人一单、占位、扣本分片的库存，同时记下待完成的订单
+-- 三个key带同一个哈希标签 {券id:分片}，Redis Cluster下落在同一个槽里
+-- KEYS[1] 本分片库存，KEYS[2] 本分片已下单用户，KEYS[3] 本分片待完成的订单（用户id -> 时间:状态）
+-- ARGV[1] 用户id，ARGV[2] 当前时间(ms)
+if (redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1) then
+    -- 用户已下单，返回2
+    return 2
+end
+-- 先占位，去其他分片扣库存的过程中同一个用户的请求会被当成重复下单
+redis.call('SADD', KEYS[2], ARGV[1])
+local stock = tonumber(redis.call('GET', KEYS[1]) or '0')
+if (stock > 0) then
+    redis.call('INCRBY', KEYS[1], -1)
+    -- 订单写进Stream以后才删掉，进程在这之前挂了由对账任务补发
+    redis.call('HSET', KEYS[3], ARGV[1], ARGV[2] .. ':home')
+    return 0
+end
+-- 本分片没有库存了，返回3，由调用方去其他分片扣，都扣不到再撤销占位
+redis.call('HSET', KEYS[3], ARGV[1], ARGV[2] .. ':fallover')
+return 3
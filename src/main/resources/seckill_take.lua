@@ -0,0 +1,15 @@
+-- 从一个库存分片里最多拿走ARGV[1]个库存，返回实际拿到的数量，库存不会被扣成负数
+-- 用于主分片没有库存时去其他分片扣，以及分片之间重新分配库存
+-- KEYS[1] 库存分片，KEYS[2] 本分片待完成的订单（可选，替用户扣库存时传）
+-- ARGV[1] 数量，ARGV[2] 用户id，ARGV[3] 当前时间(ms)
+local stock = tonumber(redis.call('GET', KEYS[1]) or '0')
+local take = math.min(stock, tonumber(ARGV[1]))
+if (take > 0) then
+    redis.call('INCRBY', KEYS[1], -take)
+    if (KEYS[2]) then
+        -- 和扣库存一起记下是这个分片替用户扣的，对账时据此判断库存有没有扣掉
+        redis.call('HSET', KEYS[2], ARGV[2], ARGV[3] .. ':taken')
+    end
+    return take
+end
+return 0
@@ -0,0 +1,6 @@
+-- 店铺哈希缓存的计数器原地自增
+-- 只在缓存存在时自增，避免对不存在的key执行HINCRBY生成一个只有计数字段的残缺缓存
+if (redis.call('EXISTS', KEYS[1]) == 1) then
+    return redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+end
+return nil
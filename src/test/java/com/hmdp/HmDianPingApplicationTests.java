@@ -2,14 +2,20 @@ package com.hmdp;
 
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopCacheWarmer;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 @SpringBootTest
 public class HmDianPingApplicationTests {
 
@@ -20,6 +26,24 @@ public class HmDianPingApplicationTests {
         shopService.saveShop2Redis(1L,10L);
     }
 
+    //测试全量预热店铺缓存
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+    @Test
+    void testWarmUpShopCache() throws InterruptedException {
+        // 启动时的预热可能还在跑，等它跑完再来一次
+        boolean done = false;
+        for (int i = 0; i < 100 && !(done = shopCacheWarmer.warmUp()); i++) {
+            Thread.sleep(100);
+        }
+        Map<String, Object> stats = shopCacheWarmer.stats();
+        System.out.println(stats);
+        assertTrue(done);
+        assertTrue(shopCacheWarmer.isReady());
+        assertEquals((long) shopService.count(), stats.get("lastCount"));
+        assertNotNull(stats.get("lastFinishTime"));
+    }
+
 
     //测试生成全局唯一ID
     @Resource
@@ -0,0 +1,101 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryShopCacheCodec;
+import com.hmdp.utils.JsonShopCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 店铺缓存序列化对比：JSON vs 二进制
+ * 运行：mvn test-compile 后直接执行main方法，会先打印每条缓存占用的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopCacheCodecBenchmark {
+
+    private final JsonShopCacheCodec json = new JsonShopCacheCodec();
+    private final BinaryShopCacheCodec binary = new BinaryShopCacheCodec();
+
+    private RedisData redisData;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setup() {
+        redisData = sample();
+        jsonBytes = json.encode(redisData);
+        binaryBytes = binary.encode(redisData);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return json.encode(redisData);
+    }
+
+    @Benchmark
+    public RedisData jsonDecode() {
+        return json.decode(jsonBytes);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return binary.encode(redisData);
+    }
+
+    @Benchmark
+    public RedisData binaryDecode() {
+        return binary.decode(binaryBytes);
+    }
+
+    static RedisData sample() {
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        return redisData;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        RedisData redisData = sample();
+        System.out.println("json bytes/entry   = " + new JsonShopCacheCodec().encode(redisData).length);
+        System.out.println("binary bytes/entry = " + new BinaryShopCacheCodec().encode(redisData).length);
+        new Runner(new OptionsBuilder()
+                .include(ShopCacheCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.GeoGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近店铺查询对比：本地网格索引 vs Redis GEORADIUS
+ * 需要一个本地Redis（-Dredis.host、-Dredis.port、-Dredis.password），会写入并在结束时删除 bench:shop:geo
+ * 运行：mvn test-compile 后直接执行main方法，会先打印本地索引每家店铺占用的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopNearbyBenchmark {
+
+    private static final String KEY = "bench:shop:geo";
+    private static final double RADIUS = 5000;
+    private static final int K = 10;
+
+    @Param({"10000", "100000"})
+    private int shops;
+
+    private GeoGrid grid;
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private double[] queryX;
+    private double[] queryY;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long[] ids = new long[shops];
+        double[] xs = new double[shops];
+        double[] ys = new double[shops];
+        random(ids, xs, ys);
+        grid = GeoGrid.build(0.01, ids, xs, ys, shops);
+
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        String password = System.getProperty("redis.password");
+        if (password != null) {
+            config.setPassword(password);
+        }
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+        redis.delete(KEY);
+        byte[] key = KEY.getBytes(StandardCharsets.UTF_8);
+        for (int from = 0; from < shops; from += 1000) {
+            int start = from;
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = start; i < Math.min(start + 1000, shops); i++) {
+                    connection.geoAdd(key, new Point(xs[i], ys[i]), Long.toString(ids[i]).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        }
+
+        Random random = new Random(42);
+        queryX = new double[1024];
+        queryY = new double[1024];
+        for (int i = 0; i < queryX.length; i++) {
+            queryX[i] = 120.0 + random.nextDouble() * 0.4;
+            queryY[i] = 30.1 + random.nextDouble() * 0.4;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redis.delete(KEY);
+        factory.destroy();
+    }
+
+    @Benchmark
+    public List<GeoGrid.Hit> gridNearest() {
+        int i = next++ & 1023;
+        return grid.nearest(queryX[i], queryY[i], K, RADIUS, null);
+    }
+
+    @Benchmark
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> redisGeoRadius() {
+        int i = next++ & 1023;
+        return redis.opsForGeo().radius(KEY,
+                new Circle(new Point(queryX[i], queryY[i]), new Distance(RADIUS, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(K));
+    }
+
+    //杭州市区范围内随机分布
+    private static void random(long[] ids, double[] xs, double[] ys) {
+        Random random = new Random(7);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+            xs[i] = 120.0 + random.nextDouble() * 0.4;
+            ys[i] = 30.1 + random.nextDouble() * 0.4;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int n = 100000;
+        long[] ids = new long[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        random(ids, xs, ys);
+        GeoGrid grid = GeoGrid.build(0.01, ids, xs, ys, n);
+        System.out.println("grid array bytes/shop = " + grid.arrayBytes() / grid.size());
+        new Runner(new OptionsBuilder()
+                .include(ShopNearbyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
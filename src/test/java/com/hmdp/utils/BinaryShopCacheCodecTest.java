@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 二进制店铺缓存：v2往返、读旧的v1和JSON数据、空字段
+ */
+class BinaryShopCacheCodecTest {
+
+    private final BinaryShopCacheCodec codec = new BinaryShopCacheCodec();
+
+    @Test
+    void roundTripV2() {
+        RedisData redisData = redisData(fullShop(), LocalDateTime.of(2025, 1, 14, 22, 32, 5, 123456789), 37L);
+        RedisData decoded = codec.decode(codec.encode(redisData));
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(37L, decoded.getRebuildMillis());
+        assertEquals(redisData.getData(), decoded.getData());
+    }
+
+    @Test
+    void roundTripShop() {
+        Shop shop = fullShop();
+        // 旁路缓存存的是店铺本身，当作没有逻辑过期时间的RedisData读
+        RedisData decoded = codec.decode(codec.encodeShop(shop));
+        assertNull(decoded.getExpireTime());
+        assertEquals(shop, decoded.getData());
+    }
+
+    @Test
+    void nullFields() {
+        Shop shop = new Shop();
+        shop.setId(7L);
+        shop.setName("");
+        assertEquals(shop, codec.decode(codec.encodeShop(shop)).getData());
+
+        RedisData decoded = codec.decode(codec.encode(redisData(null, null, null)));
+        assertNull(decoded.getData());
+        assertNull(decoded.getExpireTime());
+        assertNull(decoded.getRebuildMillis());
+    }
+
+    @Test
+    void readsV1() {
+        LocalDateTime expireTime = LocalDateTime.of(2025, 1, 14, 22, 32, 5);
+        Shop shop = fullShop();
+        // v1没有重建耗时：去掉v2里逻辑过期时间后面那个字节（-1的zigzag编码），版本号改成1
+        byte[] v2 = codec.encode(redisData(shop, expireTime, null));
+        int rebuildPos = 3 + dateTimeLength(expireTime);
+        assertEquals(1, v2[rebuildPos]);
+        byte[] v1 = new byte[v2.length - 1];
+        System.arraycopy(v2, 0, v1, 0, rebuildPos);
+        System.arraycopy(v2, rebuildPos + 1, v1, rebuildPos, v2.length - rebuildPos - 1);
+        v1[1] = 1;
+
+        RedisData decoded = codec.decode(v1);
+        assertEquals(expireTime, decoded.getExpireTime());
+        assertNull(decoded.getRebuildMillis());
+        assertEquals(shop, decoded.getData());
+    }
+
+    @Test
+    void readsLegacyJson() {
+        JsonShopCacheCodec json = new JsonShopCacheCodec();
+        RedisData redisData = redisData(fullShop(), LocalDateTime.of(2025, 1, 14, 22, 32, 5), null);
+        RedisData decoded = codec.decode(json.encode(redisData));
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(redisData.getData(), decoded.getData());
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = codec.encodeShop(fullShop());
+        bytes[1] = 9;
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes));
+    }
+
+    //逻辑过期时间编码后的长度：和没有过期时间（1个字节）的编码比较
+    private int dateTimeLength(LocalDateTime time) {
+        int with = codec.encode(redisData(null, time, null)).length;
+        int without = codec.encode(redisData(null, null, null)).length;
+        return with - without + 1;
+    }
+
+    private static RedisData redisData(Shop shop, LocalDateTime expireTime, Long rebuildMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildMillis(rebuildMillis);
+        return redisData;
+    }
+
+    private static Shop fullShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://example.com/a.jpg,https://example.com/b.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
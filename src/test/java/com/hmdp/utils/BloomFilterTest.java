@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 布隆过滤器：放进去的一定能查到，没放进去的误判率接近设定值
+ */
+class BloomFilterTest {
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(100_000, 0.01);
+        Random random = new Random(42);
+        long[] keys = new long[100_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            filter.put(keys[i]);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key), "放进去的key查不到: " + key);
+        }
+    }
+
+    @Test
+    void falsePositiveRateCloseToExpected() {
+        BloomFilter filter = new BloomFilter(100_000, 0.01);
+        for (long id = 1; id <= 100_000; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (long id = 1_000_001; id < 1_000_001 + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        // 设定1%，留出统计波动的余量
+        assertTrue(rate < 0.02, "误判率过高: " + rate);
+    }
+
+    @Test
+    void rejectsInvalidFpp() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Count-Min Sketch：只高估不低估，减半后仍然成立
+ */
+class CountMinSketchTest {
+
+    @Test
+    void neverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        Map<Long, Integer> truth = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            // 偏斜分布：少数key很热，大量key只出现几次
+            long key = random.nextInt(10) == 0 ? random.nextInt(5) : random.nextInt(2_000);
+            int estimate = sketch.add(key);
+            int count = truth.merge(key, 1, Integer::sum);
+            assertTrue(estimate >= count);
+        }
+        for (Map.Entry<Long, Integer> e : truth.entrySet()) {
+            assertTrue(sketch.estimate(e.getKey()) >= e.getValue(), "key " + e.getKey());
+        }
+    }
+
+    @Test
+    void exactWithoutCollisions() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 0; i < 10; i++) {
+            sketch.add(7L);
+        }
+        assertEquals(10, sketch.estimate(7L));
+        assertEquals(0, sketch.estimate(8L));
+    }
+
+    @Test
+    void halveKeepsUpperBound() {
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        Map<Long, Integer> truth = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            long key = random.nextInt(500);
+            sketch.add(key);
+            truth.merge(key, 1, Integer::sum);
+        }
+        sketch.halve();
+        for (Map.Entry<Long, Integer> e : truth.entrySet()) {
+            assertTrue(sketch.estimate(e.getKey()) >= e.getValue() / 2, "key " + e.getKey());
+        }
+    }
+
+    @Test
+    void halveDecaysToZero() {
+        CountMinSketch sketch = new CountMinSketch(2, 16);
+        for (int i = 0; i < 100; i++) {
+            sketch.add(1L);
+        }
+        sketch.halve();
+        assertEquals(50, sketch.estimate(1L));
+        for (int i = 0; i < 7; i++) {
+            sketch.halve();
+        }
+        assertEquals(0, sketch.estimate(1L));
+    }
+
+    @Test
+    void rejectsInvalidDepth() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(9, 16));
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 网格索引：半径查询、最近k个和游标分页都和暴力计算的结果对比
+ */
+class GeoGridTest {
+
+    private static final int N = 2_000;
+    private static final double CELL = 0.01;
+    // 杭州附近约20km见方
+    private static final double X0 = 120.05, Y0 = 30.20, SPAN = 0.2;
+
+    private final long[] ids = new long[N];
+    private final double[] xs = new double[N];
+    private final double[] ys = new double[N];
+    private final GeoGrid grid;
+
+    GeoGridTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < N; i++) {
+            ids[i] = i + 1;
+            xs[i] = X0 + random.nextDouble() * SPAN;
+            ys[i] = Y0 + random.nextDouble() * SPAN;
+        }
+        grid = GeoGrid.build(CELL, ids, xs, ys, N);
+    }
+
+    @Test
+    void withinMatchesBruteForce() {
+        Random random = new Random(1);
+        for (int q = 0; q < 50; q++) {
+            double x = X0 + random.nextDouble() * SPAN, y = Y0 + random.nextDouble() * SPAN;
+            double radius = 200 + random.nextDouble() * 3_000;
+            assertHits(bruteForce(x, y, radius), grid.within(x, y, radius, Integer.MAX_VALUE, null));
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            double x = X0 + random.nextDouble() * SPAN, y = Y0 + random.nextDouble() * SPAN;
+            List<GeoGrid.Hit> expected = bruteForce(x, y, 5_000);
+            assertHits(expected.subList(0, Math.min(10, expected.size())), grid.nearest(x, y, 10, 5_000, null));
+        }
+    }
+
+    @Test
+    void cursorPagesThroughAllHits() {
+        double x = X0 + SPAN / 2, y = Y0 + SPAN / 2;
+        List<GeoGrid.Hit> expected = bruteForce(x, y, 2_000);
+        List<GeoGrid.Hit> pages = new ArrayList<>();
+        GeoGrid.Hit after = null;
+        while (true) {
+            List<GeoGrid.Hit> page = grid.nearest(x, y, 7, 2_000, after);
+            pages.addAll(page);
+            if (page.size() < 7) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+        assertHits(expected, pages);
+    }
+
+    @Test
+    void filterDoesNotTakeSlots() {
+        double x = X0 + SPAN / 2, y = Y0 + SPAN / 2;
+        List<GeoGrid.Hit> hits = grid.nearest(x, y, 10, 5_000, null, id -> id % 2 == 0);
+        assertEquals(10, hits.size());
+        for (GeoGrid.Hit hit : hits) {
+            assertEquals(0, hit.getId() % 2);
+        }
+    }
+
+    @Test
+    void updates() {
+        // 新增，原来的网格不变
+        GeoGrid g = grid.plus(N + 1, X0, Y0);
+        assertEquals(N + 1, g.size());
+        assertEquals(N, grid.size());
+        assertTrue(containsId(g.within(X0, Y0, 1, 10, null), N + 1));
+        assertFalse(containsId(grid.within(X0, Y0, 1, 10, null), N + 1));
+        // 移动到另一个格子：按旧坐标删掉再加到新坐标，原来的位置查不到了
+        GeoGrid moved = g.without(N + 1, X0, Y0).plus(N + 1, X0 + SPAN, Y0 + SPAN);
+        assertEquals(N + 1, moved.size());
+        assertEquals(N + 1, moved.nearest(X0 + SPAN, Y0 + SPAN, 1, 1, null).get(0).getId());
+        assertFalse(containsId(moved.within(X0, Y0, 1, 10, null), N + 1));
+        // 按坐标删除，坐标不对时不删
+        assertSame(moved, moved.without(N + 1, X0, Y0));
+        GeoGrid removed = moved.without(N + 1, X0 + SPAN, Y0 + SPAN);
+        assertEquals(N, removed.size());
+        assertFalse(containsId(removed.within(X0 + SPAN, Y0 + SPAN, 1, 10, null), N + 1));
+        // 删除已有的点
+        assertEquals(N - 1, grid.without(ids[0], xs[0], ys[0]).size());
+    }
+
+    private static boolean containsId(List<GeoGrid.Hit> hits, long id) {
+        return hits.stream().anyMatch(hit -> hit.getId() == id);
+    }
+
+    private List<GeoGrid.Hit> bruteForce(double x, double y, double radius) {
+        List<GeoGrid.Hit> hits = new ArrayList<>();
+        for (int i = 0; i < N; i++) {
+            double d = GeoGrid.distance(x, y, xs[i], ys[i]);
+            if (d <= radius) {
+                hits.add(new GeoGrid.Hit(ids[i], d));
+            }
+        }
+        Collections.sort(hits);
+        return hits;
+    }
+
+    private static void assertHits(List<GeoGrid.Hit> expected, List<GeoGrid.Hit> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 营业时间：跨天、全天、多时段，位图按刻钟判断，和逐个时段比较分钟数的结果一致
+ */
+class OpenHoursTest {
+
+    @Test
+    void sameDay() {
+        assertOpen("10:00-22:00", "10:00", "15:30", "21:59");
+        assertClosed("10:00-22:00", "09:59", "22:00", "00:00");
+    }
+
+    @Test
+    void crossMidnight() {
+        assertOpen("22:00-02:00", "22:00", "23:59", "00:00", "01:45");
+        assertClosed("22:00-02:00", "02:00", "12:00", "21:59");
+    }
+
+    @Test
+    void allDay() {
+        for (String openHours : new String[]{"00:00-24:00", "10:00-10:00", "00:00-00:00", "24:00-24:00"}) {
+            assertArrayEquals(new int[]{0, 24 * 60}, OpenHours.parseSegment(openHours), openHours);
+            assertOpen(openHours, "00:00", "09:59", "10:00", "23:59");
+        }
+    }
+
+    @Test
+    void multipleSegments() {
+        String openHours = "10:00-14:00，17:00-02:00";
+        assertOpen(openHours, "10:00", "13:45", "17:00", "01:00");
+        assertClosed(openHours, "14:00", "16:45", "02:00", "09:00");
+    }
+
+    @Test
+    void invalidSegmentsAreIgnored() {
+        assertNull(OpenHours.parseSegment("10:00"));
+        assertNull(OpenHours.parseSegment("10:00-25:00"));
+        assertNull(OpenHours.parseSegment("24:30-10:00"));
+        assertNull(OpenHours.parseSegment("10:60-22:00"));
+        assertNull(OpenHours.parseSegment("全天"));
+        assertOpen("全天,10:00-22:00", "12:00");
+        assertClosed("", "12:00");
+        assertClosed(null, "12:00");
+        assertArrayEquals(new long[2], OpenHours.toBits("休息"));
+    }
+
+    @Test
+    void bitsAgreeWithSegments() {
+        String[] samples = {"10:00-22:00", "22:00-02:00", "10:00-10:00", "00:00-24:00", "09:30-11:15;13:00-13:45",
+                "10:10-22:00", "23:45-00:15", "", "abc"};
+        for (String openHours : samples) {
+            long[] bits = OpenHours.toBits(openHours);
+            // 位图按刻钟的开始时刻标记，所以只在每个刻钟的开始对比
+            for (int slot = 0; slot < OpenHours.SLOTS; slot++) {
+                LocalTime time = LocalTime.of(0, 0).plusMinutes((long) slot * OpenHours.SLOT_MINUTES);
+                assertEquals(openAt(openHours, slot * OpenHours.SLOT_MINUTES), OpenHours.isOpen(bits[0], bits[1], time),
+                        openHours + " " + time);
+            }
+        }
+    }
+
+    //逐个时段比较分钟数，跨天的时段拆成两段
+    private static boolean openAt(String openHours, int minute) {
+        for (String segment : openHours.split("[,，;；]")) {
+            int[] range = OpenHours.parseSegment(segment);
+            if (range == null) {
+                continue;
+            }
+            boolean open = range[0] <= range[1]
+                    ? minute >= range[0] && minute < range[1]
+                    : minute >= range[0] || minute < range[1];
+            if (open) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //不在刻钟开始的时刻按它所在刻钟的开始时刻判断
+    private static void assertOpen(String openHours, String... times) {
+        long[] bits = OpenHours.toBits(openHours);
+        for (String t : times) {
+            assertTrue(OpenHours.isOpen(bits[0], bits[1], LocalTime.parse(t)), openHours + " " + t);
+        }
+    }
+
+    private static void assertClosed(String openHours, String... times) {
+        long[] bits = OpenHours.toBits(openHours);
+        for (String t : times) {
+            assertFalse(OpenHours.isOpen(bits[0], bits[1], LocalTime.parse(t)), openHours + " " + t);
+        }
+    }
+}
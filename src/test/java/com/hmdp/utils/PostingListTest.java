@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 压缩倒排列表：编解码、增删和求交集，和TreeSet的结果对比
+ */
+class PostingListTest {
+
+    @Test
+    void roundTrip() {
+        long[] ids = {1, 2, 127, 128, 300, 16_384, 1L << 40, Long.MAX_VALUE};
+        byte[] bytes = PostingList.encode(ids, ids.length);
+        assertArrayEquals(ids, PostingList.decode(bytes));
+        assertEquals(ids.length, PostingList.size(bytes));
+        // 只编码前n个
+        assertArrayEquals(new long[]{1, 2, 127}, PostingList.decode(PostingList.encode(ids, 3)));
+        assertArrayEquals(new long[0], PostingList.decode(PostingList.EMPTY));
+        assertEquals(0, PostingList.size(PostingList.EMPTY));
+    }
+
+    @Test
+    void smallGapsTakeOneByte() {
+        long[] ids = new long[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1_000_000 + i * 3;
+        }
+        // 个数1字节 + 第一个id 3字节 + 99个差值各1字节
+        assertEquals(1 + 3 + 99, PostingList.encode(ids, ids.length).length);
+    }
+
+    @Test
+    void addAndRemove() {
+        Random random = new Random(42);
+        TreeSet<Long> truth = new TreeSet<>();
+        byte[] bytes = PostingList.EMPTY;
+        for (int i = 0; i < 2_000; i++) {
+            long id = random.nextInt(500) + 1;
+            if (random.nextBoolean()) {
+                bytes = PostingList.add(bytes, id);
+                truth.add(id);
+            } else {
+                bytes = PostingList.remove(bytes, id);
+                truth.remove(id);
+            }
+        }
+        assertArrayEquals(toArray(truth), PostingList.decode(bytes));
+        assertEquals(truth.size(), PostingList.size(bytes));
+        // 已存在的id重复添加、不存在的id删除，都原样返回
+        long present = truth.first();
+        assertSame(bytes, PostingList.add(bytes, present));
+        assertSame(bytes, PostingList.remove(bytes, 10_000));
+    }
+
+    @Test
+    void intersectMatchesBruteForce() {
+        Random random = new Random(7);
+        for (int round = 0; round < 100; round++) {
+            TreeSet<Long> a = randomSet(random), b = randomSet(random);
+            TreeSet<Long> expected = new TreeSet<>(a);
+            expected.retainAll(b);
+            assertArrayEquals(toArray(expected), PostingList.intersect(toArray(a), toArray(b)));
+        }
+        assertArrayEquals(new long[0], PostingList.intersect(new long[0], new long[]{1, 2}));
+    }
+
+    private static TreeSet<Long> randomSet(Random random) {
+        TreeSet<Long> set = new TreeSet<>();
+        int n = random.nextInt(200);
+        for (int i = 0; i < n; i++) {
+            set.add((long) random.nextInt(400));
+        }
+        return set;
+    }
+
+    private static long[] toArray(TreeSet<Long> set) {
+        return set.stream().mapToLong(Long::longValue).toArray();
+    }
+}
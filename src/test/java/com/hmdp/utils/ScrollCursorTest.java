@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 滚动分页游标：往返和各种格式错误
+ */
+class ScrollCursorTest {
+
+    @Test
+    void roundTrip() {
+        long[] keys = {1642061539000L, 0, -5, Long.MAX_VALUE};
+        assertArrayEquals(keys, ScrollCursor.decode(ScrollCursor.encode(keys), keys.length));
+        assertArrayEquals(new long[]{42}, ScrollCursor.decode(ScrollCursor.encode(42), 1));
+    }
+
+    @Test
+    void blankIsFirstPage() {
+        assertNull(ScrollCursor.decode(null, 2));
+        assertNull(ScrollCursor.decode("", 2));
+        assertNull(ScrollCursor.decode("  ", 2));
+    }
+
+    @Test
+    void rejectsBadBase64() {
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode("!!!", 1));
+    }
+
+    @Test
+    void rejectsWrongPartCount() {
+        String cursor = ScrollCursor.encode(1, 2);
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(cursor, 1));
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(cursor, 3));
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(raw("1:"), 2));
+    }
+
+    @Test
+    void rejectsNonNumericParts() {
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(raw("1:abc"), 2));
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(raw(":1"), 2));
+        assertThrows(IllegalArgumentException.class, () -> ScrollCursor.decode(raw("99999999999999999999"), 1));
+    }
+
+    private static String raw(String s) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片库存重新分配：总数不变，分完之后各分片和平均数最多差一个余数
+ */
+class SeckillStockShardsTest {
+
+    @Test
+    void balancesAndPreservesTotal() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int k = 2 + random.nextInt(15);
+            long[] shards = new long[k];
+            for (int i = 0; i < k; i++) {
+                // 一部分分片已经扣空
+                shards[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(1_000);
+            }
+            long total = Arrays.stream(shards).sum();
+            long moved = SeckillStockShards.rebalance(shards.clone(), (from, to, amount) -> move(shards, from, to, amount));
+
+            assertEquals(total, Arrays.stream(shards).sum());
+            if (total < k) {
+                assertEquals(-1, moved);
+                continue;
+            }
+            long target = total / k;
+            for (long stock : shards) {
+                assertTrue(stock >= target && stock <= target + k, Arrays.toString(shards));
+            }
+            // 不足平均数的分片都被补齐了
+            assertEquals(k, Arrays.stream(shards).filter(s -> s >= target).count());
+        }
+    }
+
+    @Test
+    void preservesTotalUnderConcurrentDeductions() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            int k = 2 + random.nextInt(15);
+            long[] shards = new long[k];
+            for (int i = 0; i < k; i++) {
+                shards[i] = random.nextInt(1_000);
+            }
+            long[] snapshot = shards.clone();
+            // 读完库存之后各分片又被下单扣掉了一些
+            for (int i = 0; i < k; i++) {
+                shards[i] -= random.nextInt((int) shards[i] + 1);
+            }
+            long total = Arrays.stream(shards).sum();
+            long moved = SeckillStockShards.rebalance(snapshot, (from, to, amount) -> move(shards, from, to, amount));
+
+            assertEquals(total, Arrays.stream(shards).sum());
+            for (long stock : shards) {
+                assertTrue(stock >= 0);
+            }
+            assertTrue(moved >= -1);
+        }
+    }
+
+    @Test
+    void tooLittleStockIsLeftAlone() {
+        long[] shards = {0, 2, 0, 0};
+        assertEquals(-1, SeckillStockShards.rebalance(shards.clone(), (from, to, amount) -> move(shards, from, to, amount)));
+        assertEquals(2, shards[1]);
+    }
+
+    //和take脚本一样：最多只能拿走分片上现有的库存
+    private static long move(long[] shards, int from, int to, long amount) {
+        long taken = Math.min(amount, shards[from]);
+        shards[from] -= taken;
+        shards[to] += taken;
+        return taken;
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopFilterDTO;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 店铺筛选索引：位图求交集、桶边界校验、营业时间和排序分页，都和逐个判断的结果对比
+ */
+class ShopFilterIndexTest {
+
+    private static final String[] AREAS = {"大关", "拱宸桥", "西湖", "运河上街", ""};
+    private static final String[] OPEN_HOURS = {"10:00-22:00", "22:00-02:00", "00:00-24:00", "", "11:00-14:00,17:00-21:00"};
+    private static final String[] SORTS = {null, ShopRankBoard.SCORE, ShopRankBoard.SOLD, ShopRankBoard.COMMENTS};
+
+    private final ShopOpenHoursIndex openHoursIndex = new ShopOpenHoursIndex();
+    private final ShopFilterIndex index = new ShopFilterIndex();
+    private final Map<Long, Shop> shops = new HashMap<>();
+
+    ShopFilterIndexTest() {
+        ReflectionTestUtils.setField(openHoursIndex, "maxId", 1 << 20);
+        ReflectionTestUtils.setField(index, "priceBucket", 50);
+        ReflectionTestUtils.setField(index, "scoreBucket", 5);
+        ReflectionTestUtils.setField(index, "shopOpenHoursIndex", openHoursIndex);
+        Random random = new Random(42);
+        for (long id = 1; id <= 1_000; id++) {
+            change(randomShop(random, id));
+        }
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random random = new Random(1);
+        for (int round = 0; round < 300; round++) {
+            assertFilter(randomFilter(random));
+        }
+    }
+
+    @Test
+    void bucketBoundaries() {
+        ShopFilterDTO filter = new ShopFilterDTO();
+        // 49和51落在不同的桶，精确值校验要把桶里多出来的店铺去掉
+        filter.setMinPrice(49L);
+        filter.setMaxPrice(51L);
+        assertFilter(filter);
+        filter = new ShopFilterDTO();
+        filter.setMinScore(37);
+        filter.setSortBy(ShopRankBoard.SCORE);
+        assertFilter(filter);
+    }
+
+    @Test
+    void updatesAndDeletes() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            long id = 1 + random.nextInt(1_000);
+            if (random.nextInt(4) == 0) {
+                shops.remove(id);
+                index.onShopChanged(id, null);
+                openHoursIndex.onShopChanged(id, null);
+            } else {
+                change(randomShop(random, id));
+            }
+        }
+        for (int round = 0; round < 100; round++) {
+            assertFilter(randomFilter(random));
+        }
+    }
+
+    @Test
+    void paging() {
+        ShopFilterDTO filter = new ShopFilterDTO();
+        filter.setTypeId(1L);
+        filter.setSortBy(ShopRankBoard.SOLD);
+        List<Long> expected = bruteForce(filter);
+        List<Long> pages = new ArrayList<>();
+        for (int from = 0; from < expected.size(); from += 7) {
+            List<Long> page = new ArrayList<>();
+            assertEquals(expected.size(), index.filter(filter, from, 7, page));
+            pages.addAll(page);
+        }
+        assertEquals(expected, pages);
+    }
+
+    private void assertFilter(ShopFilterDTO filter) {
+        List<Long> expected = bruteForce(filter);
+        List<Long> ids = new ArrayList<>();
+        int total = index.filter(filter, 0, Integer.MAX_VALUE, ids);
+        assertEquals(expected.size(), total, filter.toString());
+        assertEquals(expected, ids, filter.toString());
+    }
+
+    private List<Long> bruteForce(ShopFilterDTO filter) {
+        LocalTime openAt = filter.openTime();
+        Comparator<Shop> byId = Comparator.comparingLong(Shop::getId);
+        Comparator<Shop> order = byId;
+        if (ShopRankBoard.SCORE.equals(filter.getSortBy())) {
+            order = Comparator.comparingInt(Shop::getScore).reversed().thenComparing(byId);
+        } else if (ShopRankBoard.SOLD.equals(filter.getSortBy())) {
+            order = Comparator.comparingInt(Shop::getSold).reversed().thenComparing(byId);
+        } else if (ShopRankBoard.COMMENTS.equals(filter.getSortBy())) {
+            order = Comparator.comparingInt(Shop::getComments).reversed().thenComparing(byId);
+        }
+        return shops.values().stream()
+                .filter(s -> filter.getTypeId() == null || filter.getTypeId().equals(s.getTypeId()))
+                .filter(s -> filter.getArea() == null || filter.getArea().equals(s.getArea()))
+                .filter(s -> filter.getMinPrice() == null || s.getAvgPrice() >= filter.getMinPrice())
+                .filter(s -> filter.getMaxPrice() == null || s.getAvgPrice() <= filter.getMaxPrice())
+                .filter(s -> filter.getMinScore() == null || s.getScore() >= filter.getMinScore())
+                .filter(s -> openAt == null || isOpen(s.getOpenHours(), openAt))
+                .sorted(order)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isOpen(String openHours, LocalTime time) {
+        long[] bits = OpenHours.toBits(openHours);
+        return OpenHours.isOpen(bits[0], bits[1], time);
+    }
+
+    private void change(Shop shop) {
+        shops.put(shop.getId(), shop);
+        index.onShopChanged(shop.getId(), shop);
+        openHoursIndex.onShopChanged(shop.getId(), shop);
+    }
+
+    private static Shop randomShop(Random random, long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setTypeId(1L + random.nextInt(5));
+        shop.setArea(AREAS[random.nextInt(AREAS.length)]);
+        shop.setAvgPrice((long) random.nextInt(300));
+        shop.setScore(random.nextInt(51));
+        shop.setSold(random.nextInt(20));
+        shop.setComments(random.nextInt(20));
+        shop.setOpenHours(OPEN_HOURS[random.nextInt(OPEN_HOURS.length)]);
+        return shop;
+    }
+
+    private static ShopFilterDTO randomFilter(Random random) {
+        ShopFilterDTO filter = new ShopFilterDTO();
+        if (random.nextBoolean()) {
+            filter.setTypeId(1L + random.nextInt(6));
+        }
+        if (random.nextInt(3) == 0) {
+            filter.setArea(AREAS[random.nextInt(AREAS.length - 1)]);
+        }
+        if (random.nextBoolean()) {
+            filter.setMinPrice((long) random.nextInt(200));
+        }
+        if (random.nextBoolean()) {
+            filter.setMaxPrice((long) random.nextInt(300));
+        }
+        if (random.nextBoolean()) {
+            filter.setMinScore(random.nextInt(51));
+        }
+        if (random.nextInt(3) == 0) {
+            filter.setOpenAt(String.format("%02d:%02d", random.nextInt(24), random.nextInt(4) * 15));
+        }
+        filter.setSortBy(SORTS[random.nextInt(SORTS.length)]);
+        return filter;
+    }
+}
@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 店铺名称索引：关键字匹配和按评分、销量分页，都和全部排序后截取的结果对比
+ */
+class ShopNameIndexTest {
+
+    private static final String[] WORDS = {"茶", "咖啡", "火锅", "小", "Ab", "串串", "面馆"};
+    private static final String[] KEYWORDS = {"茶", "咖啡", "火锅", "ab", "小茶", "串", "面馆", "咖啡茶"};
+
+    private final ShopNameIndex index = new ShopNameIndex();
+    private final Map<Long, Shop> shops = new HashMap<>();
+
+    ShopNameIndexTest() {
+        Random random = new Random(42);
+        for (long id = 1; id <= 1_000; id++) {
+            change(randomShop(random, id));
+        }
+    }
+
+    @Test
+    void pagesMatchBruteForce() {
+        int[] sizes = {1, 7, 10, 1_000};
+        for (String keyword : KEYWORDS) {
+            for (int size : sizes) {
+                for (int from = 0; from < 60; from += size) {
+                    assertSearch(keyword, from, size);
+                }
+            }
+        }
+    }
+
+    @Test
+    void pageBeyondHitsIsEmpty() {
+        int total = index.search("茶", 0, 10_000).size();
+        assertTrue(total > 0);
+        assertTrue(index.search("茶", total, 10).isEmpty());
+        assertTrue(index.search("茶", 10_000, 10).isEmpty());
+        // from+size超过int范围也不出错
+        assertEquals(bruteForce("茶", total - 1, 1), index.search("茶", total - 1, Integer.MAX_VALUE));
+        assertTrue(index.search("不存在", 0, 10).isEmpty());
+    }
+
+    @Test
+    void updatesAndDeletes() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            long id = 1 + random.nextInt(1_000);
+            if (random.nextInt(4) == 0) {
+                shops.remove(id);
+                index.onShopChanged(id, null);
+            } else {
+                change(randomShop(random, id));
+            }
+        }
+        for (String keyword : KEYWORDS) {
+            assertSearch(keyword, 0, 10);
+            assertSearch(keyword, 20, 10);
+        }
+    }
+
+    private void assertSearch(String keyword, int from, int size) {
+        assertEquals(bruteForce(keyword, from, size), index.search(keyword, from, size), keyword + " from=" + from);
+    }
+
+    //评分、销量由高到低，一样时id小的在前
+    private List<Long> bruteForce(String keyword, int from, int size) {
+        String query = keyword.toLowerCase(Locale.ROOT);
+        return shops.values().stream()
+                .filter(shop -> shop.getName().toLowerCase(Locale.ROOT).contains(query))
+                .sorted(Comparator.comparingInt(Shop::getScore).reversed()
+                        .thenComparing(Comparator.comparingInt(Shop::getSold).reversed())
+                        .thenComparingLong(Shop::getId))
+                .skip(from)
+                .limit(size)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    private void change(Shop shop) {
+        shops.put(shop.getId(), shop);
+        index.onShopChanged(shop.getId(), shop);
+    }
+
+    private static Shop randomShop(Random random, long id) {
+        StringBuilder name = new StringBuilder();
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            name.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name.toString());
+        // 范围小一些，让评分、销量经常相同
+        shop.setScore(random.nextInt(5) * 10);
+        shop.setSold(random.nextInt(5));
+        return shop;
+    }
+}
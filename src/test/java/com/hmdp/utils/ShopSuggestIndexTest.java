@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopSuggestion;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 搜索联想索引：前缀区间、按热度取前k个、待合并的修改和删除，合并前后都和逐个匹配的结果对比
+ */
+class ShopSuggestIndexTest {
+
+    private static final String[] WORDS = {"茶", "咖啡", "火锅", "小", "Ab", "ab", "b", " 星"};
+    private static final String[] AREAS = {"大关", "拱宸桥", "西湖", "西溪", "", " 运河 "};
+    private static final int[] KS = {1, 3, 10, 50};
+
+    private final ShopSuggestIndex index = new ShopSuggestIndex();
+    private final Map<Long, Shop> shops = new HashMap<>();
+
+    ShopSuggestIndexTest() {
+        // 不让修改条数触发后台合并，合并的时机由测试控制
+        ReflectionTestUtils.setField(index, "maxPending", Integer.MAX_VALUE);
+        Random random = new Random(42);
+        for (long id = 1; id <= 500; id++) {
+            change(randomShop(random, id));
+        }
+    }
+
+    @Test
+    void topKMatchesBruteForce() {
+        // 还没合并过，全部结果都来自待合并的修改
+        assertAllPrefixes();
+        index.compact();
+        assertEquals(0, index.stats().get("pending"));
+        assertAllPrefixes();
+    }
+
+    @Test
+    void prefixRanges() {
+        index.compact();
+        // 大小写和首尾空白不影响匹配
+        assertEquals(index.suggest("ab", 50).size(), index.suggest(" AB ", 50).size());
+        assertSuggest("AB", 50);
+        // 没有匹配的前缀，包括排在所有联想词前面和后面的
+        assertTrue(index.suggest("zzz", 10).isEmpty());
+        assertTrue(index.suggest("\u0001", 10).isEmpty());
+        assertTrue(index.suggest("\uffff", 10).isEmpty());
+        // 空前缀和k<=0不返回
+        assertTrue(index.suggest(" ", 10).isEmpty());
+        assertTrue(index.suggest("茶", 0).isEmpty());
+        // 完整的联想词也是自己的前缀
+        for (Shop shop : shops.values()) {
+            assertSuggest(shop.getName(), 1_000);
+        }
+        assertSuggest("西", 10);
+        assertSuggest("西湖", 10);
+    }
+
+    @Test
+    void pendingOverridesAndDeletes() {
+        index.compact();
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            long id = 1 + random.nextInt(600);
+            if (random.nextInt(4) == 0) {
+                shops.remove(id);
+                index.onShopChanged(id, null);
+            } else {
+                change(randomShop(random, id));
+            }
+        }
+        assertTrue((Integer) index.stats().get("pending") > 0);
+        assertAllPrefixes();
+        index.compact();
+        assertAllPrefixes();
+    }
+
+    @Test
+    void renameAndLastShopOfArea() {
+        index.compact();
+        Shop shop = shop(1_000L, "独一家", "独山", 9, 40);
+        change(shop);
+        index.compact();
+        assertSuggest("独", 10);
+        // 改名后旧名字不再匹配，热度变化后商圈的热度跟着变
+        change(shop(1_000L, "咖啡独一家", "独山", 99, 40));
+        assertTrue(index.suggest("独一", 10).isEmpty());
+        assertSuggest("独", 10);
+        assertSuggest("咖啡", 50);
+        // 商圈里最后一家店删除后，商圈也不再联想
+        shops.remove(1_000L);
+        index.onShopChanged(1_000L, null);
+        assertTrue(index.suggest("独", 10).isEmpty());
+        index.compact();
+        assertTrue(index.suggest("独", 10).isEmpty());
+    }
+
+    private void assertAllPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        for (String word : WORDS) {
+            prefixes.add(word);
+            prefixes.add(word.substring(0, 1));
+        }
+        for (String area : AREAS) {
+            if (StrUtil.isNotBlank(area)) {
+                prefixes.add(area);
+            }
+        }
+        prefixes.add("咖");
+        prefixes.add("小茶");
+        for (String prefix : prefixes) {
+            for (int k : KS) {
+                assertSuggest(prefix, k);
+            }
+        }
+    }
+
+    private void assertSuggest(String prefix, int k) {
+        List<String> actual = index.suggest(prefix, k).stream()
+                .map(ShopSuggestIndexTest::format)
+                .collect(Collectors.toList());
+        assertEquals(bruteForce(prefix, k), actual, prefix + " k=" + k);
+    }
+
+    //店铺名称和商圈逐个匹配，热度由高到低，一样时按小写文字、再按联想词id
+    private List<String> bruteForce(String prefix, int k) {
+        String p = prefix.trim().toLowerCase(Locale.ROOT);
+        if (p.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Expected> all = new ArrayList<>();
+        Map<String, Long> areaWeights = new HashMap<>();
+        for (Shop shop : shops.values()) {
+            long weight = shop.getSold() * 100L + shop.getScore();
+            String name = StrUtil.trim(shop.getName());
+            if (StrUtil.isNotBlank(name)) {
+                all.add(new Expected("s:" + shop.getId(),
+                        new ShopSuggestion(ShopSuggestion.SHOP, name, shop.getId(), weight)));
+            }
+            String area = StrUtil.trim(shop.getArea());
+            if (StrUtil.isNotBlank(area)) {
+                areaWeights.merge(area, weight, Long::sum);
+            }
+        }
+        areaWeights.forEach((area, weight) ->
+                all.add(new Expected("a:" + area, new ShopSuggestion(ShopSuggestion.AREA, area, null, weight))));
+        return all.stream()
+                .filter(e -> e.key.startsWith(p))
+                .sorted(Comparator.comparingLong((Expected e) -> e.value.getWeight()).reversed()
+                        .thenComparing(e -> e.key)
+                        .thenComparing(e -> e.id))
+                .limit(k)
+                .map(e -> format(e.value))
+                .collect(Collectors.toList());
+    }
+
+    private void change(Shop shop) {
+        shops.put(shop.getId(), shop);
+        index.onShopChanged(shop.getId(), shop);
+    }
+
+    private static Shop randomShop(Random random, long id) {
+        StringBuilder name = new StringBuilder();
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            name.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        // 销量和评分的范围小一些，让热度经常相同
+        return shop(id, name.toString(), AREAS[random.nextInt(AREAS.length)], random.nextInt(5), random.nextInt(3) * 10);
+    }
+
+    private static Shop shop(Long id, String name, String area, int sold, int score) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name);
+        shop.setArea(area);
+        shop.setSold(sold);
+        shop.setScore(score);
+        return shop;
+    }
+
+    private static String format(ShopSuggestion s) {
+        return s.getType() + "|" + s.getText() + "|" + s.getShopId() + "|" + s.getWeight();
+    }
+
+    private static class Expected {
+        final String id;
+        final String key;
+        final ShopSuggestion value;
+
+        Expected(String id, ShopSuggestion value) {
+            this.id = id;
+            this.key = value.getText().toLowerCase(Locale.ROOT);
+            this.value = value;
+        }
+    }
+}
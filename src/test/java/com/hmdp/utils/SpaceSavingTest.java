@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Space-Saving：计数的上下界，以及超过 总数/capacity 的热词一定被保留
+ */
+class SpaceSavingTest {
+
+    private static final int CAPACITY = 50;
+
+    @Test
+    void errorBounds() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        Map<String, Long> truth = feed(sketch, new Random(42), 50_000);
+        assertEquals(50_000, sketch.total());
+        assertEquals(CAPACITY, sketch.size());
+        for (SpaceSaving.Counter c : sketch.top(CAPACITY)) {
+            long count = truth.getOrDefault(c.getKey(), 0L);
+            assertTrue(c.getCount() >= count, c.getKey());
+            assertTrue(c.getCount() - c.getError() <= count, c.getKey());
+            assertTrue(c.getError() <= sketch.total() / CAPACITY, c.getKey());
+        }
+    }
+
+    @Test
+    void heavyHittersArePresent() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        Map<String, Long> truth = feed(sketch, new Random(7), 50_000);
+        Set<String> kept = sketch.top(CAPACITY).stream().map(SpaceSaving.Counter::getKey).collect(Collectors.toSet());
+        long threshold = sketch.total() / CAPACITY;
+        long heavy = 0;
+        for (Map.Entry<String, Long> e : truth.entrySet()) {
+            if (e.getValue() > threshold) {
+                heavy++;
+                assertTrue(kept.contains(e.getKey()), e.getKey());
+            }
+        }
+        assertTrue(heavy > 0);
+    }
+
+    @Test
+    void topIsSortedAndDrainResets() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        feed(sketch, new Random(1), 10_000);
+        List<SpaceSaving.Counter> top = sketch.top(10);
+        assertEquals(10, top.size());
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount());
+        }
+        assertEquals(CAPACITY, sketch.drain().size());
+        assertEquals(0, sketch.size());
+        assertEquals(0, sketch.total());
+    }
+
+    @Test
+    void exactBelowCapacity() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        sketch.offer("火锅", 3);
+        sketch.offer("烧烤");
+        sketch.offer("火锅");
+        List<SpaceSaving.Counter> top = sketch.top(5);
+        assertEquals(2, top.size());
+        assertEquals("火锅", top.get(0).getKey());
+        assertEquals(4, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+    }
+
+    @Test
+    void rejectsInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving(0));
+    }
+
+    //偏斜分布：10个热词占一半，剩下的是5000个长尾词
+    private static Map<String, Long> feed(SpaceSaving sketch, Random random, int n) {
+        Map<String, Long> truth = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String key = random.nextBoolean() ? "hot" + random.nextInt(10) : "tail" + random.nextInt(5_000);
+            sketch.offer(key);
+            truth.merge(key, 1L, Long::sum);
+        }
+        return truth;
+    }
+}